@@ -0,0 +1,66 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import no.ecc.vectortile.VectorTileDecoder;
+
+/**
+ * Loads the tiles bundled as test resources, which are used as realistic
+ * benchmark input.
+ */
+final class Fixtures {
+
+    static final String TILE_14_8801_5371 = "14-8801-5371.vector.pbf";
+
+    static final String BIGTILE = "bigtile.vector.pbf";
+
+    static final String CELLS_11_1058_568 = "cells-11-1058-568.mvt";
+
+    static final String CELLS_11_1065_567 = "cells-11-1065-567.mvt";
+
+    private Fixtures() {
+
+    }
+
+    static byte[] read(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/" + name)) {
+            if (in == null) {
+                throw new FileNotFoundException(name);
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int bytesRead = 0;
+            while ((bytesRead = in.read(buf)) != -1) {
+                baos.write(buf, 0, bytesRead);
+            }
+            return baos.toByteArray();
+        }
+    }
+
+    static List<VectorTileDecoder.Feature> decode(String name) throws IOException {
+        return new VectorTileDecoder().decode(read(name)).asList();
+    }
+
+}
@@ -0,0 +1,165 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile.benchmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import no.ecc.vectortile.Filter;
+import no.ecc.vectortile.GeometryBuffer;
+import no.ecc.vectortile.StringPool;
+import no.ecc.vectortile.TileSummary;
+import no.ecc.vectortile.VectorTileBuffer;
+import no.ecc.vectortile.VectorTileDecoder;
+import no.ecc.vectortile.VectorTileDecoder.Feature;
+import vector_tile.VectorTile;
+
+/**
+ * Decodes each of the bundled tiles, with and without a layer filter and
+ * reading only geometry or only attributes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorTileDecoderBenchmark {
+
+    @Param({ Fixtures.TILE_14_8801_5371, Fixtures.BIGTILE, Fixtures.CELLS_11_1058_568, Fixtures.CELLS_11_1065_567 })
+    public String tile;
+
+    @Param({ "true", "false" })
+    public boolean autoScale;
+
+    private byte[] data;
+
+    private Filter lastLayer;
+
+    private VectorTileDecoder decoder;
+
+    private VectorTileBuffer.TileCursor cursor;
+
+    private GeometryBuffer geometry;
+
+    @Setup
+    public void setup() throws IOException {
+        data = Fixtures.read(tile);
+
+        // the last layer, so a filter has to get past all the others
+        List<VectorTile.Tile.Layer> layers = VectorTile.Tile.parseFrom(data).getLayersList();
+        lastLayer = new Filter.Single(layers.get(layers.size() - 1).getName());
+
+        decoder = new VectorTileDecoder();
+        decoder.setAutoScale(autoScale);
+
+        cursor = new VectorTileBuffer(ByteBuffer.wrap(data), new StringPool(4096)).cursor();
+        geometry = new GeometryBuffer();
+    }
+
+    @Benchmark
+    public void iterate(Blackhole bh) throws IOException {
+        for (Feature feature : decoder.decode(data)) {
+            bh.consume(feature);
+        }
+    }
+
+    @Benchmark
+    public List<Feature> asList() throws IOException {
+        return decoder.decode(data).asList();
+    }
+
+    @Benchmark
+    public long parallelGeometry() throws IOException {
+        return decoder.decode(data).parallelStream().mapToLong(f -> f.getGeometry().getNumPoints()).sum();
+    }
+
+    @Benchmark
+    public long sequentialGeometry() throws IOException {
+        return decoder.decode(data).stream().mapToLong(f -> f.getGeometry().getNumPoints()).sum();
+    }
+
+    @Benchmark
+    public void layerFilter(Blackhole bh) throws IOException {
+        for (Feature feature : decoder.decode(data, lastLayer)) {
+            bh.consume(feature);
+        }
+    }
+
+    @Benchmark
+    public TileSummary summary() throws IOException {
+        return TileSummary.scan(data);
+    }
+
+    @Benchmark
+    public void geometryOnly(Blackhole bh) throws IOException {
+        for (Feature feature : decoder.decode(data)) {
+            bh.consume(feature.getGeometry());
+        }
+    }
+
+    @Benchmark
+    public void attributesOnly(Blackhole bh) throws IOException {
+        for (Feature feature : decoder.decode(data)) {
+            bh.consume(feature.getAttributes());
+        }
+    }
+
+    @Benchmark
+    public void bufferIdsOnly(Blackhole bh) throws IOException {
+        VectorTileBuffer.LayerCursor layer = new VectorTileBuffer(ByteBuffer.wrap(data)).layers();
+        while (layer.next()) {
+            VectorTileBuffer.FeatureCursor feature = layer.features();
+            while (feature.next()) {
+                bh.consume(feature.id());
+            }
+        }
+    }
+
+    /**
+     * Iterate all features with a reused {@link VectorTileBuffer.TileCursor}
+     * and {@link GeometryBuffer}. Run with -prof gc to check that nothing is
+     * allocated per feature.
+     */
+    @Benchmark
+    public void tileCursor(Blackhole bh) throws IOException {
+        cursor.rewind();
+        while (cursor.next()) {
+            bh.consume(cursor.id());
+            bh.consume(cursor.tagCount());
+            bh.consume(cursor.geometry(geometry).getVertexCount());
+        }
+    }
+
+}
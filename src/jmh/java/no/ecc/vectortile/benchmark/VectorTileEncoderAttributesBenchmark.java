@@ -0,0 +1,101 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import no.ecc.vectortile.VectorTileDecoder.Feature;
+import no.ecc.vectortile.VectorTileEncoder;
+
+/**
+ * Encodes all features of 14-8801-5371.vector.pbf with extra attributes of
+ * mixed types, to measure the cost of the layer key/value tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorTileEncoderAttributesBenchmark {
+
+    /**
+     * Number of attributes added to the original attributes of each feature.
+     */
+    @Param({ "0", "16", "64" })
+    public int extraAttributes;
+
+    private List<Feature> features;
+
+    @Setup
+    public void setup() throws IOException {
+        features = new ArrayList<Feature>();
+        int index = 0;
+        for (Feature feature : Fixtures.decode(Fixtures.TILE_14_8801_5371)) {
+            index++;
+            Map<String, Object> attributes = new HashMap<String, Object>(feature.getAttributes());
+            for (int i = 0; i < extraAttributes; i++) {
+                long n = (index * 31L + i) % 256;
+                switch (i % 4) {
+                case 0:
+                    attributes.put("string" + i, "value" + n);
+                    break;
+                case 1:
+                    attributes.put("long" + i, Long.valueOf(n * 1000));
+                    break;
+                case 2:
+                    attributes.put("double" + i, Double.valueOf(n / 7.0));
+                    break;
+                default:
+                    attributes.put("boolean" + i, Boolean.valueOf(n % 2 == 0));
+                    break;
+                }
+            }
+            features.add(new Feature(feature.getLayerName(), feature.getExtent(), feature.getGeometry(), attributes,
+                    feature.getId()));
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        VectorTileEncoder encoder = new VectorTileEncoder();
+        for (Feature feature : features) {
+            encoder.addFeature(feature.getLayerName(), feature.getAttributes(), feature.getGeometry(), feature.getId());
+        }
+        return encoder.encode();
+    }
+
+}
@@ -0,0 +1,200 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.util.AffineTransformation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import no.ecc.vectortile.VectorTileDecoder.Feature;
+import no.ecc.vectortile.VectorTileEncoder;
+
+/**
+ * Encodes features decoded from the bundled tiles, per geometry type, with
+ * and without clipping and simplification.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VectorTileEncoderBenchmark {
+
+    public enum Input {
+        POINTS, LINES, POLYGONS, POLYGONS_WITH_HOLES, MULTIPOLYGONS
+    }
+
+    public enum Clipping {
+        /**
+         * Only features that are inside the tile, so clipping is short
+         * circuited.
+         */
+        INTERIOR,
+        /**
+         * All features, moved so that the tile corner cuts through the middle
+         * of the data.
+         */
+        CLIPPED
+    }
+
+    @Param
+    public Input input;
+
+    @Param
+    public Clipping clipping;
+
+    @Param({ "false", "true" })
+    public boolean simplify;
+
+    private List<Feature> features;
+
+    @Setup
+    public void setup() throws IOException {
+        features = clip(features(input), clipping);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        VectorTileEncoder encoder = new VectorTileEncoder(4096, 8, true, false, simplify ? 0.1 : -1.0);
+        for (Feature feature : features) {
+            encoder.addFeature(feature.getLayerName(), feature.getAttributes(), feature.getGeometry(), feature.getId());
+        }
+        return encoder.encode();
+    }
+
+    static List<Feature> features(Input input) throws IOException {
+        switch (input) {
+        case POINTS:
+            return select(Fixtures.decode(Fixtures.TILE_14_8801_5371), Point.class);
+        case LINES:
+            List<Feature> lines = select(Fixtures.decode(Fixtures.TILE_14_8801_5371), LineString.class);
+            lines.addAll(select(Fixtures.decode(Fixtures.TILE_14_8801_5371), MultiLineString.class));
+            return lines;
+        case POLYGONS:
+            return select(Fixtures.decode(Fixtures.TILE_14_8801_5371), Polygon.class);
+        case POLYGONS_WITH_HOLES:
+            List<Feature> withHoles = new ArrayList<Feature>();
+            for (Feature feature : select(Fixtures.decode(Fixtures.BIGTILE), Polygon.class)) {
+                if (((Polygon) feature.getGeometry()).getNumInteriorRing() > 0) {
+                    withHoles.add(feature);
+                }
+            }
+            if (withHoles.isEmpty()) {
+                throw new IllegalStateException("No polygons with holes in " + Fixtures.BIGTILE);
+            }
+            return withHoles;
+        case MULTIPOLYGONS:
+            return groupPolygons(select(Fixtures.decode(Fixtures.TILE_14_8801_5371), Polygon.class), 8);
+        default:
+            throw new IllegalArgumentException(input.name());
+        }
+    }
+
+    private static List<Feature> select(List<Feature> features, Class<? extends Geometry> type) {
+        List<Feature> selected = new ArrayList<Feature>();
+        for (Feature feature : features) {
+            if (type.isInstance(feature.getGeometry())) {
+                selected.add(feature);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Merge runs of polygons in the same layer into multipolygons.
+     */
+    private static List<Feature> groupPolygons(List<Feature> polygons, int groupSize) {
+        GeometryFactory gf = new GeometryFactory();
+        Map<String, List<Feature>> byLayer = new LinkedHashMap<String, List<Feature>>();
+        for (Feature feature : polygons) {
+            List<Feature> layer = byLayer.get(feature.getLayerName());
+            if (layer == null) {
+                layer = new ArrayList<Feature>();
+                byLayer.put(feature.getLayerName(), layer);
+            }
+            layer.add(feature);
+        }
+
+        List<Feature> multiPolygons = new ArrayList<Feature>();
+        for (List<Feature> layer : byLayer.values()) {
+            for (int i = 0; i < layer.size(); i += groupSize) {
+                List<Feature> group = layer.subList(i, Math.min(i + groupSize, layer.size()));
+                Polygon[] parts = new Polygon[group.size()];
+                for (int j = 0; j < parts.length; j++) {
+                    parts[j] = (Polygon) group.get(j).getGeometry();
+                }
+                MultiPolygon multiPolygon = gf.createMultiPolygon(parts);
+                Feature first = group.get(0);
+                multiPolygons.add(new Feature(first.getLayerName(), first.getExtent(), multiPolygon,
+                        first.getAttributes(), first.getId()));
+            }
+        }
+        return multiPolygons;
+    }
+
+    static List<Feature> clip(List<Feature> features, Clipping clipping) {
+        List<Feature> result = new ArrayList<Feature>();
+        if (clipping == Clipping.INTERIOR) {
+            Envelope tile = new Envelope(0, 256, 0, 256);
+            for (Feature feature : features) {
+                if (tile.contains(feature.getGeometry().getEnvelopeInternal())) {
+                    result.add(feature);
+                }
+            }
+            return result;
+        }
+
+        Envelope data = new Envelope();
+        for (Feature feature : features) {
+            data.expandToInclude(feature.getGeometry().getEnvelopeInternal());
+        }
+        AffineTransformation move = AffineTransformation.translationInstance(-data.centre().x, -data.centre().y);
+        for (Feature feature : features) {
+            result.add(new Feature(feature.getLayerName(), feature.getExtent(), move.transform(feature.getGeometry()),
+                    feature.getAttributes(), feature.getId()));
+        }
+        return result;
+    }
+
+}
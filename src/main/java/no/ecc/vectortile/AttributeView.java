@@ -0,0 +1,183 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import vector_tile.VectorTile;
+
+/**
+ * A read-only {@link Map} view of the attributes of a decoded feature, backed
+ * by the tag indices of the feature and the shared {@link LayerTables}.
+ * Lookups scan the tags, which is fast for the small number of attributes a
+ * feature normally has, and no hash table is built per feature. A key that
+ * is tagged more than once is seen once, with the last value.
+ */
+final class AttributeView extends AbstractMap<String, Object> {
+
+    private final LayerTables tables;
+
+    private final VectorTile.Tile.Feature feature;
+
+    // the tag positions of the last pair of each key, found when first needed
+    private volatile int[] pairs;
+
+    /**
+     * @throws IndexOutOfBoundsException when a tag of the feature is outside
+     *             the key or value table of the layer
+     */
+    AttributeView(LayerTables tables, VectorTile.Tile.Feature feature) {
+        this.tables = tables;
+        this.feature = feature;
+
+        int n = feature.getTagsCount();
+        if ((n & 1) != 0) {
+            throw new IndexOutOfBoundsException("Odd number of tags " + n);
+        }
+        for (int i = 0; i < n; i += 2) {
+            checkIndex(feature.getTags(i), tables.keys.length);
+            checkIndex(feature.getTags(i + 1), tables.values.length);
+        }
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Tag index " + index + " is outside the layer table of " + size);
+        }
+    }
+
+    /**
+     * @return the index in the layer value table for the given key, or -1
+     *         when the feature does not have the key. The last one wins if a
+     *         key is tagged more than once.
+     */
+    int valueIndex(Object key) {
+        int found = -1;
+        int n = feature.getTagsCount();
+        for (int i = 0; i + 1 < n; i += 2) {
+            String k = tables.keys[feature.getTags(i)];
+            if (k == key || k.equals(key)) {
+                found = feature.getTags(i + 1);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the tag position of the last pair of each key tagged by the
+     *         feature, in tag order
+     */
+    private int[] pairs() {
+        int[] p = pairs;
+        if (p == null) {
+            int n = feature.getTagsCount();
+            p = new int[n / 2];
+            int count = 0;
+            for (int i = 0; i < n; i += 2) {
+                int keyId = tables.keyIds[feature.getTags(i)];
+                boolean last = true;
+                for (int j = i + 2; j < n; j += 2) {
+                    if (tables.keyIds[feature.getTags(j)] == keyId) {
+                        last = false;
+                        break;
+                    }
+                }
+                if (last) {
+                    p[count++] = i;
+                }
+            }
+            p = count == p.length ? p : Arrays.copyOf(p, count);
+            pairs = p;
+        }
+        return p;
+    }
+
+    LayerTables tables() {
+        return tables;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int valueIndex = valueIndex(key);
+        return valueIndex < 0 ? null : tables.values[valueIndex];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return valueIndex(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return pairs().length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return feature.getTagsCount() < 2;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String, Object>>() {
+
+                    private final int[] p = pairs();
+
+                    private int i = 0;
+
+                    public boolean hasNext() {
+                        return i < p.length;
+                    }
+
+                    public Map.Entry<String, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int t = p[i++];
+                        String key = tables.keys[feature.getTags(t)];
+                        Object value = tables.values[feature.getTags(t + 1)];
+                        return new AbstractMap.SimpleImmutableEntry<String, Object>(key, value);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+
+                };
+            }
+
+            @Override
+            public int size() {
+                return AttributeView.this.size();
+            }
+
+        };
+    }
+
+}
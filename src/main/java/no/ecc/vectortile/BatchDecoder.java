@@ -0,0 +1,440 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import no.ecc.vectortile.VectorTileDecoder.Feature;
+import no.ecc.vectortile.VectorTileDecoder.FeatureIterable;
+
+/**
+ * Decodes many tiles in parallel and hands every feature to a consumer.
+ * <p>
+ * Each tile is read and decoded by a single task, and its features are given
+ * to the consumer in order on that task's thread. Different tiles are
+ * decoded at the same time, so the consumer must be thread safe. The
+ * geometry scratch buffers of the decoder are kept per thread, and the
+ * {@link StringPool} of the decoder is shared by all threads, so layer keys
+ * and common values are only created once for the whole batch.
+ * <p>
+ * Tiles are taken from the given {@link Iterable} on the calling thread only
+ * while fewer than {@link #getQueueCapacity()} tiles are queued or being
+ * decoded, so a slow consumer holds back reading rather than letting
+ * pending tiles pile up in memory.
+ * <p>
+ * A tile that can not be read or decoded, or for which the consumer throws
+ * any {@link Throwable}, is reported in {@link Result#getFailures()} and does
+ * not stop the rest of the batch.
+ * <p>
+ * If the calling thread is interrupted, the batch is cancelled and an
+ * {@link InterruptedException} is thrown without a {@link Result}. Tiles
+ * that have not started are skipped, and tiles that are being decoded stop
+ * before their next feature. The method does not wait for them, so the
+ * consumer may still be called with one more feature per running tile
+ * after it has thrown.
+ */
+public class BatchDecoder {
+
+    /**
+     * Reads the encoded bytes of a tile.
+     */
+    public interface TileReader<K> {
+
+        byte[] read(K tile) throws IOException;
+
+    }
+
+    /**
+     * Receives the decoded features, from many threads at the same time.
+     */
+    public interface FeatureConsumer<K> {
+
+        void accept(K tile, Feature feature) throws Exception;
+
+    }
+
+    private interface TileOpener<K> {
+
+        FeatureIterable open(K tile) throws IOException;
+
+    }
+
+    private final VectorTileDecoder decoder;
+
+    private Filter filter = Filter.ALL;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private int queueCapacity = -1;
+
+    private Executor executor;
+
+    /**
+     * Create a batch decoder with a new {@link VectorTileDecoder} that uses a
+     * {@link StringPool} of 4096 entries.
+     */
+    public BatchDecoder() {
+        this(new VectorTileDecoder());
+        decoder.setStringPool(new StringPool(4096));
+    }
+
+    /**
+     * Create a batch decoder that decodes with the settings of the given
+     * decoder. The decoder must not be changed while a batch runs.
+     *
+     * @param decoder the {@link VectorTileDecoder} to decode with
+     */
+    public BatchDecoder(VectorTileDecoder decoder) {
+        if (decoder == null) {
+            throw new NullPointerException("decoder");
+        }
+        this.decoder = decoder;
+    }
+
+    /**
+     * @return the decoder used for every tile. The decoder of a batch
+     *         decoder made with {@link #BatchDecoder()} has a
+     *         {@link StringPool} of 4096 entries installed.
+     */
+    public VectorTileDecoder getDecoder() {
+        return decoder;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @param filter a {@link Filter} to select the layers to decode in every
+     *            tile
+     */
+    public void setFilter(Filter filter) {
+        if (filter == null) {
+            throw new NullPointerException("filter");
+        }
+        this.filter = filter;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the number of threads of the pool that is created for each batch
+     * when no {@link Executor} is set. The default is the number of
+     * available processors.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @return the largest number of tiles that are queued or being decoded
+     *         at the same time
+     */
+    public int getQueueCapacity() {
+        return queueCapacity > 0 ? queueCapacity : threads * 4;
+    }
+
+    /**
+     * Set the largest number of tiles that are queued or being decoded at
+     * the same time. The default is four times the number of threads.
+     *
+     * @param queueCapacity the number of tiles
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Run the tile tasks on the given {@link Executor} instead of a pool
+     * created for each batch. The executor is not shut down by this class.
+     * On Java 21 and later, an executor with a virtual thread per task works
+     * well when the tiles are read from slow storage.
+     *
+     * @param executor the {@link Executor} to use, or null to create a pool
+     *            of {@link #getThreads()} threads for each batch
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Decode the given tile payloads.
+     *
+     * @param tiles the encoded tiles
+     * @param consumer the {@link FeatureConsumer} to receive the features
+     * @return the {@link Result} of the batch
+     * @throws InterruptedException when interrupted while waiting for the
+     *             tiles to be decoded, which cancels the batch
+     */
+    public Result<byte[]> decode(Iterable<byte[]> tiles, FeatureConsumer<? super byte[]> consumer)
+            throws InterruptedException {
+        return run(tiles, new TileOpener<byte[]>() {
+
+            @Override
+            public FeatureIterable open(byte[] tile) throws IOException {
+                return decoder.decode(tile, filter);
+            }
+
+        }, consumer);
+    }
+
+    /**
+     * Decode the tiles read by the given reader on the worker threads.
+     *
+     * @param tiles the keys of the tiles, like file names or tile ids
+     * @param reader the {@link TileReader} to read the bytes of each tile with
+     * @param consumer the {@link FeatureConsumer} to receive the features
+     * @return the {@link Result} of the batch
+     * @throws InterruptedException when interrupted while waiting for the
+     *             tiles to be decoded, which cancels the batch
+     */
+    public <K> Result<K> decode(Iterable<? extends K> tiles, final TileReader<? super K> reader,
+            FeatureConsumer<? super K> consumer) throws InterruptedException {
+        return run(tiles, new TileOpener<K>() {
+
+            @Override
+            public FeatureIterable open(K tile) throws IOException {
+                return decoder.decode(reader.read(tile), filter);
+            }
+
+        }, consumer);
+    }
+
+    /**
+     * Decode the given tile files by memory mapping them on the worker
+     * threads.
+     *
+     * @param paths the tile files
+     * @param consumer the {@link FeatureConsumer} to receive the features
+     * @return the {@link Result} of the batch
+     * @throws InterruptedException when interrupted while waiting for the
+     *             tiles to be decoded, which cancels the batch
+     */
+    public Result<Path> decodePaths(Iterable<? extends Path> paths, FeatureConsumer<? super Path> consumer)
+            throws InterruptedException {
+        return run(paths, new TileOpener<Path>() {
+
+            @Override
+            public FeatureIterable open(Path path) throws IOException {
+                return decoder.decode(path, filter);
+            }
+
+        }, consumer);
+    }
+
+    private <K> Result<K> run(Iterable<? extends K> tiles, final TileOpener<K> opener,
+            final FeatureConsumer<? super K> consumer) throws InterruptedException {
+        if (consumer == null) {
+            throw new NullPointerException("consumer");
+        }
+
+        final int capacity = getQueueCapacity();
+        final Semaphore permits = new Semaphore(capacity);
+        final Result<K> result = new Result<K>();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+
+        ExecutorService pool = null;
+        Executor tasks = executor;
+        if (tasks == null) {
+            pool = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+            tasks = pool;
+        }
+
+        try {
+            for (final K tile : tiles) {
+                permits.acquire();
+                Runnable task = new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            decodeTile(tile, opener, consumer, result, cancelled);
+                        } finally {
+                            permits.release();
+                        }
+                    }
+
+                };
+                try {
+                    tasks.execute(task);
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+
+            // wait for the tiles that are still queued or being decoded
+            permits.acquire(capacity);
+            permits.release(capacity);
+        } catch (InterruptedException e) {
+            // stop the tasks that may still run on an executor of the caller
+            cancelled.set(true);
+            throw e;
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+
+        return result;
+    }
+
+    private static <K> void decodeTile(K tile, TileOpener<K> opener, FeatureConsumer<? super K> consumer,
+            Result<K> result, AtomicBoolean cancelled) {
+        if (cancelled.get()) {
+            return;
+        }
+        result.tileCount.incrementAndGet();
+        try {
+            long features = 0;
+            try {
+                for (Feature feature : opener.open(tile)) {
+                    if (cancelled.get()) {
+                        break;
+                    }
+                    consumer.accept(tile, feature);
+                    features++;
+                }
+            } finally {
+                result.featureCount.addAndGet(features);
+            }
+        } catch (Throwable e) {
+            // errors too, like a StackOverflowError on a hostile tile, so
+            // that no tile fails without being reported
+            result.failures.add(new Failure<K>(tile, e));
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOL = new AtomicInteger();
+
+        private final int pool = POOL.incrementAndGet();
+
+        private final AtomicInteger thread = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "vectortile-batch-" + pool + "-" + thread.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+
+    }
+
+    /**
+     * The outcome of a batch.
+     */
+    public static final class Result<K> {
+
+        private final AtomicLong tileCount = new AtomicLong();
+
+        private final AtomicLong featureCount = new AtomicLong();
+
+        private final ConcurrentLinkedQueue<Failure<K>> failures = new ConcurrentLinkedQueue<Failure<K>>();
+
+        Result() {
+        }
+
+        /**
+         * @return the number of tiles, including the failed ones
+         */
+        public long getTileCount() {
+            return tileCount.get();
+        }
+
+        /**
+         * @return the number of features given to the consumer
+         */
+        public long getFeatureCount() {
+            return featureCount.get();
+        }
+
+        /**
+         * @return the tiles that failed, in no particular order
+         */
+        public List<Failure<K>> getFailures() {
+            return Collections.unmodifiableList(new ArrayList<Failure<K>>(failures));
+        }
+
+        public boolean isSuccess() {
+            return failures.isEmpty();
+        }
+
+    }
+
+    /**
+     * A tile that could not be read or decoded, or for which the consumer
+     * threw an exception or an error.
+     */
+    public static final class Failure<K> {
+
+        private final K tile;
+
+        private final Throwable cause;
+
+        Failure(K tile, Throwable cause) {
+            this.tile = tile;
+            this.cause = cause;
+        }
+
+        public K getTile() {
+            return tile;
+        }
+
+        public Throwable getCause() {
+            return cause;
+        }
+
+        @Override
+        public String toString() {
+            return tile + ": " + cause;
+        }
+
+    }
+
+}
@@ -0,0 +1,289 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counters and timings collected by a {@link VectorTileEncoder} when set with
+ * {@link VectorTileEncoder#setStats(EncoderStats)}. Nothing is measured when
+ * no stats object is set.
+ * <p>
+ * Counters accumulate until {@link #reset()} is called, so one instance can
+ * collect totals over several tiles. Each feature is counted once, even when
+ * {@link VectorTileEncoder#encode()} is called more than once, while the
+ * timings of every call are added. Instances are not thread safe and should
+ * only be used by one encoder at a time.
+ */
+public final class EncoderStats {
+
+    /**
+     * Reasons for a feature to be left out of the tile.
+     */
+    public enum DropReason {
+        /**
+         * Polygon or MultiPolygon with an area smaller than one tile pixel.
+         */
+        SMALL_AREA,
+        /**
+         * LineString shorter than one tile pixel.
+         */
+        SHORT_LENGTH,
+        /**
+         * Nothing left after clipping, or a point outside of the clip area.
+         */
+        EMPTY_CLIP,
+        /**
+         * No geometry commands left after rounding to the tile grid.
+         */
+        EMPTY_COMMANDS
+    }
+
+    private final long[] dropped = new long[DropReason.values().length];
+
+    private long accepted;
+
+    private long verticesBeforeSimplify;
+    private long verticesAfterSimplify;
+    private long verticesAfterClip;
+    private long verticesAfterRounding;
+
+    private long simplifyNanos;
+    private long clipNanos;
+    private long sortNanos;
+    private long commandNanos;
+    private long validateNanos;
+    private long serializeNanos;
+
+    private long wktFallbacks;
+
+    private final Map<String, Long> layerBytes = new LinkedHashMap<String, Long>();
+
+    /**
+     * @return the number of features written to the tile
+     */
+    public long getAccepted() {
+        return accepted;
+    }
+
+    /**
+     * @param reason a {@link DropReason}
+     * @return the number of features left out for the given reason
+     */
+    public long getDropped(DropReason reason) {
+        return dropped[reason.ordinal()];
+    }
+
+    /**
+     * @return the number of features left out for any reason
+     */
+    public long getDropped() {
+        long sum = 0;
+        for (long n : dropped) {
+            sum += n;
+        }
+        return sum;
+    }
+
+    public long getVerticesBeforeSimplify() {
+        return verticesBeforeSimplify;
+    }
+
+    public long getVerticesAfterSimplify() {
+        return verticesAfterSimplify;
+    }
+
+    public long getVerticesAfterClip() {
+        return verticesAfterClip;
+    }
+
+    /**
+     * @return the number of vertices in the written geometry commands
+     */
+    public long getVerticesAfterRounding() {
+        return verticesAfterRounding;
+    }
+
+    public long getSimplifyNanos() {
+        return simplifyNanos;
+    }
+
+    public long getClipNanos() {
+        return clipNanos;
+    }
+
+    /**
+     * @return nanoseconds spent ordering the features of each layer along a
+     *         Hilbert curve, see {@link VectorTileEncoder#setSpatialOrdering(boolean)}
+     */
+    public long getSortNanos() {
+        return sortNanos;
+    }
+
+    /**
+     * @return nanoseconds spent turning geometries into geometry commands
+     */
+    public long getCommandNanos() {
+        return commandNanos;
+    }
+
+    /**
+     * @return nanoseconds spent in
+     *         {@link VectorTileEncoder#validateAndRepairCommands(List, org.locationtech.jts.geom.Geometry)}
+     */
+    public long getValidateNanos() {
+        return validateNanos;
+    }
+
+    /**
+     * @return nanoseconds spent building the protobuf layers, including their
+     *         key and value tables, and writing the tile bytes. Sorting,
+     *         creating geometry commands and validating them are not included.
+     */
+    public long getSerializeNanos() {
+        return serializeNanos;
+    }
+
+    /**
+     * @return the number of times clipping had to go via WKT to get a
+     *         non-empty intersection
+     */
+    public long getWktFallbacks() {
+        return wktFallbacks;
+    }
+
+    /**
+     * @return a {@link Map} from layer name to the encoded size of the layer in
+     *         bytes, in tile order
+     */
+    public Map<String, Long> getLayerBytes() {
+        return Collections.unmodifiableMap(layerBytes);
+    }
+
+    public void reset() {
+        for (int i = 0; i < dropped.length; i++) {
+            dropped[i] = 0;
+        }
+        accepted = 0;
+        verticesBeforeSimplify = 0;
+        verticesAfterSimplify = 0;
+        verticesAfterClip = 0;
+        verticesAfterRounding = 0;
+        simplifyNanos = 0;
+        clipNanos = 0;
+        sortNanos = 0;
+        commandNanos = 0;
+        validateNanos = 0;
+        serializeNanos = 0;
+        wktFallbacks = 0;
+        layerBytes.clear();
+    }
+
+    void drop(DropReason reason) {
+        dropped[reason.ordinal()]++;
+    }
+
+    void accept(List<Integer> commands) {
+        accepted++;
+        verticesAfterRounding += vertexCount(commands);
+    }
+
+    void simplified(long nanos) {
+        simplifyNanos += nanos;
+    }
+
+    void clipped(long nanos) {
+        clipNanos += nanos;
+    }
+
+    /**
+     * Count the vertices of a geometry that is not split into parts any
+     * further.
+     */
+    void vertices(int before, int afterSimplify, int afterClip) {
+        verticesBeforeSimplify += before;
+        verticesAfterSimplify += afterSimplify;
+        verticesAfterClip += afterClip;
+    }
+
+    void sorted(long nanos) {
+        sortNanos += nanos;
+    }
+
+    void commands(long nanos) {
+        commandNanos += nanos;
+    }
+
+    void validated(long nanos) {
+        validateNanos += nanos;
+    }
+
+    void serialized(long nanos) {
+        serializeNanos += nanos;
+    }
+
+    void wktFallback() {
+        wktFallbacks++;
+    }
+
+    void layer(String layerName, long bytes) {
+        Long previous = layerBytes.get(layerName);
+        layerBytes.put(layerName, Long.valueOf(previous == null ? bytes : previous.longValue() + bytes));
+    }
+
+    static int vertexCount(List<Integer> commands) {
+        int vertices = 0;
+        int i = 0;
+        while (i < commands.size()) {
+            int commandAndLength = commands.get(i++).intValue();
+            int command = commandAndLength & ((1 << 3) - 1);
+            int length = commandAndLength >> 3;
+            if (command == Command.MoveTo || command == Command.LineTo) {
+                vertices += length;
+                i += length * 2;
+            }
+        }
+        return vertices;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("EncoderStats[accepted=").append(accepted);
+        for (DropReason reason : DropReason.values()) {
+            sb.append(", dropped.").append(reason).append('=').append(getDropped(reason));
+        }
+        sb.append(", vertices=").append(verticesBeforeSimplify).append('/').append(verticesAfterSimplify).append('/')
+                .append(verticesAfterClip).append('/').append(verticesAfterRounding);
+        sb.append(", simplifyNanos=").append(simplifyNanos);
+        sb.append(", clipNanos=").append(clipNanos);
+        sb.append(", sortNanos=").append(sortNanos);
+        sb.append(", commandNanos=").append(commandNanos);
+        sb.append(", validateNanos=").append(validateNanos);
+        sb.append(", serializeNanos=").append(serializeNanos);
+        sb.append(", wktFallbacks=").append(wktFallbacks);
+        sb.append(", layerBytes=").append(layerBytes);
+        sb.append(']');
+        return sb.toString();
+    }
+
+}
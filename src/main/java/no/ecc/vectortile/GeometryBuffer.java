@@ -0,0 +1,272 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.util.Arrays;
+
+import vector_tile.VectorTile.Tile.GeomType;
+
+/**
+ * A reusable buffer for the geometry of a decoded feature as plain integer
+ * tile coordinates, without creating any JTS objects.
+ * <p>
+ * The vertices are stored as absolute x/y pairs in the 0..extent-1 range, so
+ * no scaling is done. A part is started by each MoveTo command. For lines a
+ * part is a line string, for polygons it is a ring and for points each point
+ * is a part of its own. Rings are not explicitly closed, so the first
+ * vertex is not repeated at the end, but {@link #isClosed(int)} tells if a
+ * part ended with a ClosePath command. For polygons the signed area of each
+ * ring is computed exactly in integer arithmetic while decoding, see
+ * {@link #getTwiceSignedArea(int)}.
+ * <p>
+ * The arrays grow as needed and are reused between calls, so the same
+ * instance can be filled for feature after feature. Instances are not thread
+ * safe.
+ */
+public final class GeometryBuffer {
+
+    private GeomType type = GeomType.UNKNOWN;
+
+    private int[] coordinates;
+    private int vertexCount;
+
+    private int[] partOffsets = new int[8];
+    private boolean[] partClosed = new boolean[8];
+    private long[] partArea2 = new long[8];
+    private int partCount;
+
+    private int[] commands;
+
+    public GeometryBuffer() {
+        this(64);
+    }
+
+    /**
+     * @param commandCount the expected number of command integers
+     */
+    GeometryBuffer(int commandCount) {
+        coordinates = new int[Math.max(commandCount, 8)];
+        commands = new int[Math.max(commandCount, 8)];
+    }
+
+    /**
+     * @return the geometry type of the last decoded feature
+     */
+    public GeomType getType() {
+        return type;
+    }
+
+    /**
+     * @return the number of vertices
+     */
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getX(int vertex) {
+        return coordinates[vertex * 2];
+    }
+
+    public int getY(int vertex) {
+        return coordinates[vertex * 2 + 1];
+    }
+
+    /**
+     * Get the backing array of x/y pairs. Only the first
+     * {@link #getVertexCount()} pairs are valid, and the array is replaced
+     * when it needs to grow.
+     *
+     * @return the backing array of absolute x/y pairs
+     */
+    public int[] getCoordinates() {
+        return coordinates;
+    }
+
+    /**
+     * @return the number of parts, which is the number of MoveTo commands
+     */
+    public int getPartCount() {
+        return partCount;
+    }
+
+    /**
+     * @param part the index of the part
+     * @return the index of the first vertex of the part
+     */
+    public int getPartStart(int part) {
+        return partOffsets[part];
+    }
+
+    /**
+     * @param part the index of the part
+     * @return the index after the last vertex of the part
+     */
+    public int getPartEnd(int part) {
+        return part + 1 < partCount ? partOffsets[part + 1] : vertexCount;
+    }
+
+    /**
+     * @param part the index of the part
+     * @return true when the part ended with a ClosePath command
+     */
+    public boolean isClosed(int part) {
+        return partClosed[part];
+    }
+
+    /**
+     * Get twice the signed area of a polygon ring, computed with the
+     * surveyor's formula on the integer tile coordinates, so it is exact and
+     * independent of any scaling. Following the vector tile specification,
+     * exterior rings have a positive area and interior rings a negative area.
+     *
+     * @param part the index of the part
+     * @return twice the signed area, or 0 when the geometry is not a polygon
+     */
+    public long getTwiceSignedArea(int part) {
+        return type == GeomType.POLYGON ? partArea2[part] : 0;
+    }
+
+    /**
+     * Get the backing array of part offsets. Only the first
+     * {@link #getPartCount()} offsets are valid, and the array is replaced
+     * when it needs to grow.
+     *
+     * @return the backing array with the index of the first vertex of each
+     *         part
+     */
+    public int[] getPartOffsets() {
+        return partOffsets;
+    }
+
+    public void clear() {
+        type = GeomType.UNKNOWN;
+        vertexCount = 0;
+        partCount = 0;
+    }
+
+    /**
+     * @return a scratch array of at least the given size for the raw
+     *         command integers
+     */
+    int[] commands(int size) {
+        if (commands.length < size) {
+            commands = new int[Math.max(size, commands.length * 2)];
+        }
+        return commands;
+    }
+
+    /**
+     * Replace the content with the given raw geometry commands.
+     */
+    GeometryBuffer decode(GeomType geomType, int[] commands, int count) {
+        clear();
+        this.type = geomType == null ? GeomType.UNKNOWN : geomType;
+
+        boolean polygon = this.type == GeomType.POLYGON;
+
+        int x = 0;
+        int y = 0;
+        int length = 0;
+        int command = 0;
+        int i = 0;
+        while (i < count) {
+
+            if (length <= 0) {
+                length = commands[i++];
+                command = length & ((1 << 3) - 1);
+                length = length >> 3;
+            }
+
+            if (length > 0) {
+
+                if (command == Command.MoveTo) {
+                    if (polygon && partCount > 0) {
+                        closeArea(partCount - 1);
+                    }
+                    addPart();
+                }
+
+                if (command == Command.ClosePath) {
+                    if (partCount > 0) {
+                        partClosed[partCount - 1] = true;
+                    }
+                    length--;
+                    continue;
+                }
+
+                if (partCount == 0 || i + 1 >= count) {
+                    // LineTo without MoveTo or truncated commands
+                    break;
+                }
+
+                int px = x;
+                int py = y;
+                x += VectorTileDecoder.zigZagDecode(commands[i++]);
+                y += VectorTileDecoder.zigZagDecode(commands[i++]);
+                length--;
+
+                if (polygon && vertexCount > partOffsets[partCount - 1]) {
+                    partArea2[partCount - 1] += (long) px * y - (long) x * py;
+                }
+                addVertex(x, y);
+            }
+
+        }
+
+        if (polygon && partCount > 0) {
+            closeArea(partCount - 1);
+        }
+
+        return this;
+    }
+
+    /**
+     * Add the edge from the last vertex back to the first vertex of a part.
+     */
+    private void closeArea(int part) {
+        int first = partOffsets[part] * 2;
+        int last = (vertexCount - 1) * 2;
+        if (last > first) {
+            partArea2[part] += (long) coordinates[last] * coordinates[first + 1]
+                    - (long) coordinates[first] * coordinates[last + 1];
+        }
+    }
+
+    private void addPart() {
+        if (partCount == partOffsets.length) {
+            partOffsets = Arrays.copyOf(partOffsets, partCount * 2);
+            partClosed = Arrays.copyOf(partClosed, partCount * 2);
+            partArea2 = Arrays.copyOf(partArea2, partCount * 2);
+        }
+        partClosed[partCount] = false;
+        partArea2[partCount] = 0;
+        partOffsets[partCount++] = vertexCount;
+    }
+
+    private void addVertex(int x, int y) {
+        int index = vertexCount * 2;
+        if (index + 1 >= coordinates.length) {
+            coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+        }
+        coordinates[index] = x;
+        coordinates[index + 1] = y;
+        vertexCount++;
+    }
+
+}
@@ -0,0 +1,312 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.locationtech.jts.algorithm.Area;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * Turns JTS geometries into vector tile geometry commands, scaled and
+ * rounded to the tile grid, with polygon rings in the winding order required
+ * by the vector tile specification.
+ * <p>
+ * The encoder is stateless apart from its immutable settings, so a single
+ * instance can be shared between threads. Geometry commands are relative to
+ * the position of a {@link Cursor}, which is owned by the caller and moved by
+ * every call. A cursor belongs to one feature being encoded and must not be
+ * shared between threads, so the geometries of different features can be
+ * encoded in parallel, each with its own cursor.
+ */
+public final class GeometryCommandEncoder {
+
+    private final double scale;
+
+    private final boolean rotateRings;
+
+    /**
+     * Create a {@link GeometryCommandEncoder}.
+     *
+     * @param scale
+     *            a double the coordinates are multiplied with before they are
+     *            rounded to the tile grid. extent / 256.0 for autoScale, 1.0
+     *            otherwise.
+     * @param rotateRings
+     *            when true, closed rings are rotated to start at the vertex
+     *            nearest the current cursor position.
+     */
+    public GeometryCommandEncoder(double scale, boolean rotateRings) {
+        this.scale = scale;
+        this.rotateRings = rotateRings;
+    }
+
+    /**
+     * The current position in the tile grid. Each feature starts with a new
+     * or {@link #reset()} cursor at (0,0). A cursor must not be shared between
+     * threads.
+     */
+    public static final class Cursor {
+
+        int x;
+        int y;
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public void reset() {
+            x = 0;
+            y = 0;
+        }
+
+    }
+
+    /**
+     * Encode the given geometry as a feature geometry, starting at (0,0).
+     *
+     * @param geometry a {@link Geometry} in the coordinate space of this encoder
+     * @return a {@link List} of geometry commands
+     */
+    public List<Integer> commands(Geometry geometry) {
+        return commands(geometry, new Cursor());
+    }
+
+    /**
+     * Encode the given geometry relative to, and update, the given cursor.
+     *
+     * @param geometry a {@link Geometry} in the coordinate space of this encoder
+     * @param cursor the {@link Cursor} to move
+     * @return a {@link List} of geometry commands
+     */
+    public List<Integer> commands(Geometry geometry, Cursor cursor) {
+
+        if (geometry instanceof MultiLineString) {
+            return commands((MultiLineString) geometry, cursor);
+        }
+        if (geometry instanceof Polygon) {
+            return commands((Polygon) geometry, cursor);
+        }
+        if (geometry instanceof MultiPolygon) {
+            return commands((MultiPolygon) geometry, cursor);
+        }
+
+        return commands(geometry.getCoordinates(), shouldClosePath(geometry), geometry instanceof MultiPoint, cursor);
+    }
+
+    static boolean shouldClosePath(Geometry geometry) {
+        return (geometry instanceof Polygon) || (geometry instanceof LinearRing);
+    }
+
+    List<Integer> commands(MultiLineString mls, Cursor cursor) {
+        List<Integer> commands = new ArrayList<Integer>();
+        for (int i = 0; i < mls.getNumGeometries(); i++) {
+            final int oldX = cursor.x;
+            final int oldY = cursor.y;
+            final List<Integer> geomCommands = commands(mls.getGeometryN(i).getCoordinates(), false, false, cursor);
+            if (geomCommands.size() > 3) {
+                // if the geometry consists of all identical points (after Math.round()) commands
+                // returns a single move_to command, which is not valid according to the vector tile
+                // specifications.
+                // (https://github.com/mapbox/vector-tile-spec/tree/master/2.1#4343-linestring-geometry-type)
+                commands.addAll(geomCommands);
+            } else {
+                // reset x and y to the previous value
+                cursor.x = oldX;
+                cursor.y = oldY;
+            }
+        }
+        return commands;
+    }
+
+    List<Integer> commands(MultiPolygon mp, Cursor cursor) {
+        List<Integer> commands = new ArrayList<Integer>();
+        for (int i = 0; i < mp.getNumGeometries(); i++) {
+            Polygon polygon = (Polygon) mp.getGeometryN(i);
+            commands.addAll(commands(polygon, cursor));
+        }
+        return commands;
+    }
+
+    List<Integer> commands(Polygon polygon, Cursor cursor) {
+        List<Integer> commands = new ArrayList<Integer>();
+
+        // According to the vector tile specification, the exterior ring of a polygon
+        // must be in clockwise order, while the interior ring in counter-clockwise order.
+        // In the tile coordinate system, Y axis is positive down.
+        //
+        // However, in geographic coordinate system, Y axis is positive up.
+        // Therefore, we must reverse the coordinates.
+        // So, the code below will make sure that exterior ring is in counter-clockwise order
+        // and interior ring in clockwise order.
+        LineString exteriorRing = polygon.getExteriorRing();
+        if (Area.ofRingSigned(exteriorRing.getCoordinates()) > 0) {
+            exteriorRing = exteriorRing.reverse();
+        }
+        commands.addAll(commands(startNearCursor(exteriorRing.getCoordinates(), cursor), true, false, cursor));
+
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            LineString interiorRing = polygon.getInteriorRingN(i);
+            if (Area.ofRingSigned(interiorRing.getCoordinates()) < 0) {
+                interiorRing = interiorRing.reverse();
+            }
+            commands.addAll(commands(startNearCursor(interiorRing.getCoordinates(), cursor), true, false, cursor));
+        }
+        return commands;
+    }
+
+    /**
+     * Rotate a closed ring so that it starts at the vertex nearest the given
+     * cursor position. The orientation of the ring is kept. Returns the given
+     * ring unchanged when ring rotation is turned off.
+     */
+    Coordinate[] startNearCursor(Coordinate[] cs, Cursor cursor) {
+        if (!rotateRings || cs.length < 4 || !cs[0].equals2D(cs[cs.length - 1])) {
+            return cs;
+        }
+
+        int n = cs.length - 1;
+        int start = 0;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            long dx = Math.round(cs[i].x * scale) - cursor.x;
+            long dy = Math.round(cs[i].y * scale) - cursor.y;
+            long distance = dx * dx + dy * dy;
+            if (distance < best) {
+                best = distance;
+                start = i;
+            }
+        }
+        if (start == 0) {
+            return cs;
+        }
+
+        Coordinate[] rotated = new Coordinate[cs.length];
+        for (int i = 0; i < n; i++) {
+            rotated[i] = cs[(start + i) % n];
+        }
+        rotated[n] = rotated[0];
+        return rotated;
+    }
+
+    /**
+     * Encode a sequence of coordinates as MoveTo, LineTo and ClosePath
+     * commands. Command integers hold the command id in the lowest three bits
+     * and the repeat count in the rest, and each vertex is written as a
+     * zigzag encoded delta from the previous position of the cursor. For
+     * example MoveTo(3, 6), LineTo(8, 12), LineTo(20, 34), ClosePath from
+     * (0,0) is encoded as [9 6 12 18 10 12 24 44 15].
+     *
+     * @param cs the coordinates, before scaling
+     * @param closePathAtEnd true to end with a ClosePath command
+     * @param multiPoint true to write every coordinate with a single MoveTo
+     *            command
+     * @param cursor the {@link Cursor} to encode relative to and update
+     * @return a {@link List} of geometry commands
+     */
+    List<Integer> commands(Coordinate[] cs, boolean closePathAtEnd, boolean multiPoint, Cursor cursor) {
+
+        if (cs.length == 0) {
+            return Collections.emptyList();
+        }
+
+        List<Integer> r = new ArrayList<Integer>();
+
+        int lineToIndex = 0;
+        int lineToLength = 0;
+
+        for (int i = 0; i < cs.length; i++) {
+            Coordinate c = cs[i];
+
+            if (i == 0) {
+                r.add(commandAndLength(Command.MoveTo, multiPoint ? cs.length : 1));
+            }
+
+            int _x = (int) Math.round(c.x * scale);
+            int _y = (int) Math.round(c.y * scale);
+
+            // prevent point equal to the previous
+            if (i > 0 && _x == cursor.x && _y == cursor.y) {
+                lineToLength--;
+                continue;
+            }
+
+            // prevent double closing
+            if (closePathAtEnd && cs.length > 1 && i == (cs.length - 1) && cs[0].equals(c)) {
+                lineToLength--;
+                continue;
+            }
+
+            // delta, then zigzag
+            r.add(zigZagEncode(_x - cursor.x));
+            r.add(zigZagEncode(_y - cursor.y));
+
+            cursor.x = _x;
+            cursor.y = _y;
+
+            if (i == 0 && cs.length > 1 && !multiPoint) {
+                // can length be too long?
+                lineToIndex = r.size();
+                lineToLength = cs.length - 1;
+                r.add(commandAndLength(Command.LineTo, lineToLength));
+            }
+
+        }
+
+        // update LineTo length
+        if (lineToIndex > 0) {
+            if (lineToLength == 0) {
+                // remove empty LineTo
+                r.remove(lineToIndex);
+            } else {
+                // update LineTo with new length
+                r.set(lineToIndex, commandAndLength(Command.LineTo, lineToLength));
+            }
+        }
+
+        if (closePathAtEnd) {
+            r.add(commandAndLength(Command.ClosePath, 1));
+        }
+
+        return r;
+    }
+
+    static int commandAndLength(int command, int repeat) {
+        return repeat << 3 | command;
+    }
+
+    static int zigZagEncode(int n) {
+        // https://developers.google.com/protocol-buffers/docs/encoding#types
+        return (n << 1) ^ (n >> 31);
+    }
+
+}
@@ -0,0 +1,69 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import vector_tile.VectorTile.Tile.GeomType;
+
+/**
+ * Receives the geometry of a feature as drawing events straight from the
+ * geometry command loop, without any geometry objects being created. This
+ * fits drawing to a {@link java.awt.geom.Path2D}, a canvas or a vertex
+ * buffer.
+ * <p>
+ * Coordinates are absolute, and scaled when the geometry is visited with
+ * scaling. Each MoveTo command starts a new line string, polygon ring or
+ * point. For polygons, {@link #ring(boolean)} is called before the
+ * {@link #moveTo(double, double)} of every ring, and rings without area are
+ * left out.
+ *
+ * @see VectorTileDecoder.Feature#visitGeometry(GeometryVisitor)
+ * @see VectorTileBuffer.TileCursor#geometry(GeometryVisitor, boolean)
+ */
+public interface GeometryVisitor {
+
+    /**
+     * Called once before anything else for a geometry.
+     *
+     * @param type the encoded geometry type
+     */
+    default void begin(GeomType type) {
+    }
+
+    /**
+     * Called before the first point of every polygon ring.
+     *
+     * @param exterior true for an exterior ring, which has a positive area in
+     *            tile coordinates, and false for a hole
+     */
+    default void ring(boolean exterior) {
+    }
+
+    void moveTo(double x, double y);
+
+    void lineTo(double x, double y);
+
+    void closePath();
+
+    /**
+     * Called once after everything else for a geometry.
+     */
+    default void end() {
+    }
+
+}
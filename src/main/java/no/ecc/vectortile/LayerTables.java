@@ -0,0 +1,120 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import vector_tile.VectorTile;
+
+/**
+ * The decoded key and value tables of a layer, shared by all features of the
+ * layer. Numeric values are also kept unboxed for the typed attribute
+ * accessors of {@link VectorTileDecoder.Feature}.
+ */
+final class LayerTables {
+
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte BOOLEAN = 2;
+    static final byte INTEGER = 3;
+    static final byte FLOATING = 4;
+
+    final String[] keys;
+
+    // the first index of each key in the key table, which is only different
+    // from the index itself when the table has the same key more than once
+    final int[] keyIds;
+
+    final Object[] values;
+
+    final byte[] kinds;
+
+    final long[] longs;
+
+    final double[] doubles;
+
+    LayerTables(VectorTile.Tile.Layer layer, StringPool stringPool) {
+        if (stringPool == null) {
+            keys = layer.getKeysList().toArray(new String[layer.getKeysCount()]);
+        } else {
+            // look up the raw bytes, so protobuf never creates the strings
+            keys = new String[layer.getKeysCount()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = stringPool.get(layer.getKeysBytes(i));
+            }
+        }
+
+        keyIds = new int[keys.length];
+        Map<String, Integer> firstIndex = new HashMap<String, Integer>(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) {
+            Integer first = firstIndex.putIfAbsent(keys[i], i);
+            keyIds[i] = first == null ? i : first;
+        }
+
+        int n = layer.getValuesCount();
+        values = new Object[n];
+        kinds = new byte[n];
+        longs = new long[n];
+        doubles = new double[n];
+
+        for (int i = 0; i < n; i++) {
+            VectorTile.Tile.Value value = layer.getValues(i);
+            if (value.hasBoolValue()) {
+                values[i] = value.getBoolValue();
+                kinds[i] = BOOLEAN;
+            } else if (value.hasDoubleValue()) {
+                floating(i, value.getDoubleValue());
+                values[i] = value.getDoubleValue();
+            } else if (value.hasFloatValue()) {
+                floating(i, value.getFloatValue());
+                values[i] = value.getFloatValue();
+            } else if (value.hasIntValue()) {
+                integer(i, value.getIntValue());
+            } else if (value.hasSintValue()) {
+                integer(i, value.getSintValue());
+            } else if (value.hasUintValue()) {
+                integer(i, value.getUintValue());
+            } else if (value.hasStringValue()) {
+                values[i] = stringPool == null ? value.getStringValue() : stringPool.get(value.getStringValueBytes());
+                kinds[i] = STRING;
+            } else {
+                kinds[i] = NULL;
+            }
+        }
+    }
+
+    private void integer(int i, long value) {
+        values[i] = Long.valueOf(value);
+        kinds[i] = INTEGER;
+        longs[i] = value;
+        doubles[i] = value;
+    }
+
+    private void floating(int i, double value) {
+        kinds[i] = FLOATING;
+        longs[i] = (long) value;
+        doubles[i] = value;
+    }
+
+    boolean isNumber(int valueIndex) {
+        return kinds[valueIndex] == INTEGER || kinds[valueIndex] == FLOATING;
+    }
+
+}
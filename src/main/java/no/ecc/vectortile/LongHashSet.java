@@ -0,0 +1,107 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of primitive longs using open addressing with linear
+ * probing, so looking up an id does not box it.
+ */
+final class LongHashSet {
+
+    // 0 marks an empty slot, so the value 0 is tracked on its own
+    private final long[] table;
+    private final int mask;
+    private final boolean containsZero;
+    private final int size;
+
+    LongHashSet(long[] values) {
+        int capacity = Integer.highestOneBit(Math.max(4, values.length * 2 - 1)) << 1;
+        table = new long[capacity];
+        mask = capacity - 1;
+
+        boolean zero = false;
+        int n = 0;
+        for (long value : values) {
+            if (value == 0) {
+                if (!zero) {
+                    zero = true;
+                    n++;
+                }
+                continue;
+            }
+            int slot = slot(value);
+            while (table[slot] != 0 && table[slot] != value) {
+                slot = (slot + 1) & mask;
+            }
+            if (table[slot] == 0) {
+                table[slot] = value;
+                n++;
+            }
+        }
+        containsZero = zero;
+        size = n;
+    }
+
+    private int slot(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    boolean contains(long value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        int slot = slot(value);
+        while (true) {
+            long v = table[slot];
+            if (v == value) {
+                return true;
+            }
+            if (v == 0) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the values in ascending order
+     */
+    long[] toArray() {
+        long[] values = new long[size];
+        int i = 0;
+        if (containsZero) {
+            values[i++] = 0;
+        }
+        for (long v : table) {
+            if (v != 0) {
+                values[i++] = v;
+            }
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+}
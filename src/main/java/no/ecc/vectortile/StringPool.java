@@ -0,0 +1,158 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * A bounded pool of decoded strings, looked up by their raw UTF-8 bytes, so
+ * the same layer keys and common values are only created once when decoding
+ * many tiles. Set it with {@link VectorTileDecoder#setStringPool(StringPool)}
+ * or {@link VectorTileBuffer#VectorTileBuffer(ByteBuffer, StringPool)}.
+ * <p>
+ * The pool is a fixed size table where each string has a single slot given
+ * by the hash of its bytes, and a new string replaces whatever was in its
+ * slot. It never grows beyond its capacity and needs no locking, so one
+ * instance can be shared by decoders on many threads.
+ */
+public final class StringPool {
+
+    private static final class Entry {
+
+        final byte[] bytes;
+        final int hash;
+        final String value;
+
+        Entry(byte[] bytes, int hash, String value) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.value = value;
+        }
+
+    }
+
+    private final AtomicReferenceArray<Entry> entries;
+
+    private final int mask;
+
+    private final int maxLength;
+
+    /**
+     * Create a pool for strings of up to 64 bytes.
+     *
+     * @param capacity the number of slots, rounded up to a power of two
+     */
+    public StringPool(int capacity) {
+        this(capacity, 64);
+    }
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two
+     * @param maxLength longer strings are decoded without using the pool
+     */
+    public StringPool(int capacity, int maxLength) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.entries = new AtomicReferenceArray<Entry>(size);
+        this.mask = size - 1;
+        this.maxLength = maxLength;
+    }
+
+    public int getCapacity() {
+        return entries.length();
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Get the string for the UTF-8 bytes in the given range of the buffer,
+     * using absolute reads only.
+     */
+    String get(ByteBuffer buffer, int offset, int length) {
+        if (length > maxLength) {
+            return decode(buffer, offset, length);
+        }
+
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buffer.get(offset + i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & mask;
+
+        Entry entry = entries.get(slot);
+        if (entry != null && entry.hash == hash && sameBytes(entry.bytes, buffer, offset, length)) {
+            return entry.value;
+        }
+
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        entries.lazySet(slot, new Entry(bytes, hash, value));
+        return value;
+    }
+
+    /**
+     * Get the string for the UTF-8 bytes of a protobuf string field, without
+     * letting protobuf decode it.
+     */
+    String get(ByteString bytes) {
+        if (bytes.size() > maxLength) {
+            return bytes.toStringUtf8();
+        }
+        ByteBuffer buffer = bytes.asReadOnlyByteBuffer();
+        return get(buffer, buffer.position(), bytes.size());
+    }
+
+    private static boolean sameBytes(byte[] bytes, ByteBuffer buffer, int offset, int length) {
+        if (bytes.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != buffer.get(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,332 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import vector_tile.VectorTile;
+
+/**
+ * A feature level filter on attributes, set with
+ * {@link VectorTileDecoder#setTagFilter(TagFilter)}.
+ * <p>
+ * The filter is resolved once per layer against the key and value tables of
+ * the layer, so matching a feature only compares the integer indices of its
+ * tags. Features that do not match are skipped before their attributes or
+ * geometry are decoded.
+ */
+public abstract class TagFilter {
+
+    /**
+     * Matches the raw tags of the features of a single layer.
+     */
+    static abstract class Matcher {
+
+        abstract boolean matches(VectorTile.Tile.Feature feature);
+
+    }
+
+    static final Matcher NONE = new Matcher() {
+
+        @Override
+        boolean matches(VectorTile.Tile.Feature feature) {
+            return false;
+        }
+
+    };
+
+    static final Matcher ANY = new Matcher() {
+
+        @Override
+        boolean matches(VectorTile.Tile.Feature feature) {
+            return true;
+        }
+
+    };
+
+    TagFilter() {
+    }
+
+    /**
+     * Resolve this filter against the tables of a layer.
+     *
+     * @return a {@link Matcher}, which is {@link #NONE} when no feature of the
+     *         layer can match
+     */
+    abstract Matcher bind(LayerTables tables);
+
+    /**
+     * A filter on the value of a single key. The key and the matching values
+     * are resolved to indices once per layer.
+     */
+    static abstract class KeyValue extends TagFilter {
+
+        final String key;
+
+        KeyValue(String key) {
+            if (key == null) {
+                throw new NullPointerException("key");
+            }
+            this.key = key;
+        }
+
+        abstract boolean matches(LayerTables tables, int valueIndex);
+
+        @Override
+        Matcher bind(LayerTables tables) {
+            // a layer may have the key more than once in its key table
+            final boolean[] keyMatches = new boolean[tables.keys.length];
+            boolean anyKey = false;
+            for (int i = 0; i < keyMatches.length; i++) {
+                keyMatches[i] = key.equals(tables.keys[i]);
+                anyKey |= keyMatches[i];
+            }
+            if (!anyKey) {
+                return NONE;
+            }
+            final boolean[] valueMatches = new boolean[tables.values.length];
+            boolean anyValue = false;
+            for (int i = 0; i < valueMatches.length; i++) {
+                valueMatches[i] = matches(tables, i);
+                anyValue |= valueMatches[i];
+            }
+            if (!anyValue) {
+                return NONE;
+            }
+            return new Matcher() {
+
+                @Override
+                boolean matches(VectorTile.Tile.Feature feature) {
+                    boolean match = false;
+                    int count = feature.getTagsCount() - 1;
+                    for (int t = 0; t < count; t += 2) {
+                        int keyIndex = feature.getTags(t);
+                        if (keyIndex >= 0 && keyIndex < keyMatches.length && keyMatches[keyIndex]) {
+                            int valueIndex = feature.getTags(t + 1);
+                            // the last tag wins, as for the decoded attributes
+                            match = valueIndex >= 0 && valueIndex < valueMatches.length && valueMatches[valueIndex];
+                        }
+                    }
+                    return match;
+                }
+
+            };
+        }
+
+    }
+
+    /**
+     * A filter that lets features with the given attribute, whatever the
+     * value, be decoded.
+     */
+    public static final class Has extends KeyValue {
+
+        public Has(String key) {
+            super(key);
+        }
+
+        @Override
+        boolean matches(LayerTables tables, int valueIndex) {
+            return tables.kinds[valueIndex] != LayerTables.NULL;
+        }
+
+    }
+
+    /**
+     * A filter that lets features with an attribute equal to the given value
+     * be decoded. Numbers are compared by value, so an Integer matches a Long
+     * or a Double with the same value. Integer values are compared as long
+     * when the given value is a Long, Integer, Short or Byte, so large ids
+     * are matched exactly.
+     */
+    public static final class Equals extends KeyValue {
+
+        private final Object value;
+
+        public Equals(String key, Object value) {
+            super(key);
+            this.value = value;
+        }
+
+        @Override
+        boolean matches(LayerTables tables, int valueIndex) {
+            if (value instanceof Long || value instanceof Integer || value instanceof Short
+                    || value instanceof Byte) {
+                long longValue = ((Number) value).longValue();
+                return tables.isNumber(valueIndex) && tables.longs[valueIndex] == longValue
+                        && tables.doubles[valueIndex] == longValue;
+            }
+            if (value instanceof Number) {
+                return tables.isNumber(valueIndex)
+                        && tables.doubles[valueIndex] == ((Number) value).doubleValue();
+            }
+            return value != null && value.equals(tables.values[valueIndex]);
+        }
+
+    }
+
+    /**
+     * A filter that lets features with a numeric attribute greater than the
+     * given value be decoded.
+     */
+    public static final class GreaterThan extends KeyValue {
+
+        private final double value;
+
+        public GreaterThan(String key, double value) {
+            super(key);
+            this.value = value;
+        }
+
+        @Override
+        boolean matches(LayerTables tables, int valueIndex) {
+            return tables.isNumber(valueIndex) && tables.doubles[valueIndex] > value;
+        }
+
+    }
+
+    /**
+     * A filter that lets features with a numeric attribute less than the
+     * given value be decoded.
+     */
+    public static final class LessThan extends KeyValue {
+
+        private final double value;
+
+        public LessThan(String key, double value) {
+            super(key);
+            this.value = value;
+        }
+
+        @Override
+        boolean matches(LayerTables tables, int valueIndex) {
+            return tables.isNumber(valueIndex) && tables.doubles[valueIndex] < value;
+        }
+
+    }
+
+    /**
+     * A filter that lets features matching all of the given filters be
+     * decoded.
+     */
+    public static final class And extends TagFilter {
+
+        private final TagFilter[] filters;
+
+        public And(TagFilter... filters) {
+            this.filters = filters.clone();
+        }
+
+        @Override
+        Matcher bind(LayerTables tables) {
+            final Matcher[] matchers = new Matcher[filters.length];
+            for (int i = 0; i < filters.length; i++) {
+                matchers[i] = filters[i].bind(tables);
+                if (matchers[i] == NONE) {
+                    return NONE;
+                }
+            }
+            return new Matcher() {
+
+                @Override
+                boolean matches(VectorTile.Tile.Feature feature) {
+                    for (Matcher matcher : matchers) {
+                        if (!matcher.matches(feature)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+
+            };
+        }
+
+    }
+
+    /**
+     * A filter that lets features matching any of the given filters be
+     * decoded.
+     */
+    public static final class Or extends TagFilter {
+
+        private final TagFilter[] filters;
+
+        public Or(TagFilter... filters) {
+            this.filters = filters.clone();
+        }
+
+        @Override
+        Matcher bind(LayerTables tables) {
+            int count = 0;
+            final Matcher[] matchers = new Matcher[filters.length];
+            for (TagFilter filter : filters) {
+                Matcher matcher = filter.bind(tables);
+                if (matcher != NONE) {
+                    matchers[count++] = matcher;
+                }
+            }
+            if (count == 0) {
+                return NONE;
+            }
+            final int n = count;
+            return new Matcher() {
+
+                @Override
+                boolean matches(VectorTile.Tile.Feature feature) {
+                    for (int i = 0; i < n; i++) {
+                        if (matchers[i].matches(feature)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+
+            };
+        }
+
+    }
+
+    /**
+     * A filter that lets features not matching the given filter be decoded.
+     */
+    public static final class Not extends TagFilter {
+
+        private final TagFilter filter;
+
+        public Not(TagFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        Matcher bind(LayerTables tables) {
+            final Matcher matcher = filter.bind(tables);
+            if (matcher == NONE) {
+                return ANY;
+            }
+            return new Matcher() {
+
+                @Override
+                boolean matches(VectorTile.Tile.Feature feature) {
+                    return !matcher.matches(feature);
+                }
+
+            };
+        }
+
+    }
+
+}
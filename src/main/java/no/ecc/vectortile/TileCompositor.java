@@ -0,0 +1,511 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.protobuf.CodedOutputStream;
+
+import vector_tile.VectorTile;
+
+/**
+ * Combines several encoded tiles into one at the byte level, like tiles
+ * from separate pipelines for a base map, labels and overlays.
+ * <p>
+ * A layer name that is only in one of the tiles has its layer copied as it
+ * is. How a layer name that is in more than one tile is handled is set with
+ * {@link #setConflict(Conflict)}. Geometry bytes are never decoded or
+ * changed.
+ * <p>
+ * Instances can be used by many threads as long as they are not changed.
+ */
+public final class TileCompositor {
+
+    /**
+     * What to do when several tiles have a layer with the same name.
+     */
+    public enum Conflict {
+
+        /**
+         * Throw an {@link IOException} before anything is written.
+         */
+        FAIL,
+
+        /**
+         * Keep the first layer with the name, and give the later ones a name
+         * with a suffix, like "poi_2", that is not used by any other layer.
+         */
+        RENAME,
+
+        /**
+         * Combine the layers into one, with the keys and values of all of
+         * them and the tag indices of the features remapped to the combined
+         * tables. The layers must have the same extent. The merged layer has
+         * the highest version of the layers, as version 2 of the
+         * specification only clarifies how version 1 tiles should be
+         * encoded. Fields of the layers that are not part of the
+         * specification are dropped.
+         */
+        MERGE
+
+    }
+
+    private Conflict conflict = Conflict.FAIL;
+
+    public Conflict getConflict() {
+        return conflict;
+    }
+
+    /**
+     * @param conflict the {@link Conflict} handling for layers with the same
+     *            name in more than one tile
+     */
+    public void setConflict(Conflict conflict) {
+        if (conflict == null) {
+            throw new NullPointerException("conflict");
+        }
+        this.conflict = conflict;
+    }
+
+    public byte[] composite(byte[]... tiles) throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(tiles.length);
+        for (byte[] tile : tiles) {
+            buffers.add(ByteBuffer.wrap(tile));
+        }
+        return composite(buffers);
+    }
+
+    /**
+     * Combine the tiles between the position and the limit of each of the
+     * given buffers. The positions of the buffers are not changed.
+     *
+     * @param tiles {@link ByteBuffer}s with encoded vector tiles
+     * @return the combined encoded tile
+     * @throws IOException when a tile is malformed or the layers of the tiles
+     *             can not be combined
+     */
+    public byte[] composite(List<ByteBuffer> tiles) throws IOException {
+        int size = 0;
+        for (ByteBuffer tile : tiles) {
+            size += tile.remaining();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        composite(tiles, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Combine the tiles between the position and the limit of each of the
+     * given buffers, and write the result to the given stream. The positions
+     * of the buffers are not changed and the stream is not closed.
+     *
+     * <p>
+     * Conflicts, and malformed layers that have to be renamed or merged,
+     * are found before anything is written to the stream. Layers that are
+     * copied as they are are not checked. If writing to the stream itself
+     * fails, the stream has part of a tile and should be discarded.
+     *
+     * @param tiles {@link ByteBuffer}s with encoded vector tiles
+     * @param out the {@link OutputStream} to write the combined tile to
+     * @throws IOException when a tile is malformed, the layers of the tiles
+     *             can not be combined or the tile can not be written
+     */
+    public void composite(List<ByteBuffer> tiles, OutputStream out) throws IOException {
+        List<Field> fields = new ArrayList<Field>();
+        Map<String, List<Field>> layersByName = new LinkedHashMap<String, List<Field>>();
+        for (ByteBuffer buffer : tiles) {
+            WireReader r = new WireReader(buffer);
+            r.reset(buffer.position(), buffer.limit());
+            while (r.hasRemaining()) {
+                int fieldStart = r.position;
+                int tag = r.readTag();
+                int wireType = WireReader.wireType(tag);
+                if (WireReader.fieldNumber(tag) != VectorTile.Tile.LAYERS_FIELD_NUMBER
+                        || wireType != WireReader.LENGTH_DELIMITED) {
+                    r.skip(wireType);
+                    fields.add(new Field(buffer, fieldStart, r.position, null));
+                    continue;
+                }
+                int length = r.readLength();
+                Field layer = new Field(buffer, fieldStart, r.position, VectorTileBuffer.layerName(buffer,
+                        r.position, length));
+                r.position += length;
+                layer.end = r.position;
+                fields.add(layer);
+
+                List<Field> sameName = layersByName.get(layer.name);
+                if (sameName == null) {
+                    sameName = new ArrayList<Field>(1);
+                    layersByName.put(layer.name, sameName);
+                }
+                sameName.add(layer);
+            }
+        }
+
+        // do everything that can fail on a conflict or a malformed layer
+        // before anything is written, so the stream never has half a tile
+        Set<String> usedNames = new HashSet<String>(layersByName.keySet());
+        for (Map.Entry<String, List<Field>> entry : layersByName.entrySet()) {
+            List<Field> sameName = entry.getValue();
+            if (sameName.size() < 2) {
+                continue;
+            }
+            switch (conflict) {
+            case FAIL:
+                throw new IOException("Layer " + entry.getKey() + " is in more than one tile");
+            case RENAME:
+                for (Field layer : sameName.subList(1, sameName.size())) {
+                    // scans the whole layer, as writing the new name will
+                    TileRewriter.fieldSize(layer.buffer, layer.offset, layer.end,
+                            VectorTile.Tile.Layer.NAME_FIELD_NUMBER);
+                    layer.newName = uniqueName(entry.getKey(), usedNames);
+                }
+                break;
+            case MERGE:
+                checkMergeable(entry.getKey(), sameName);
+                ByteArrayOutputStream merged = new ByteArrayOutputStream();
+                CodedOutputStream mergedOutput = CodedOutputStream.newInstance(merged);
+                writeMerged(mergedOutput, entry.getKey(), sameName);
+                mergedOutput.flush();
+                sameName.get(0).merged = merged.toByteArray();
+                break;
+            default:
+                throw new IllegalStateException("Unknown conflict " + conflict);
+            }
+        }
+
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        for (Field field : fields) {
+            if (field.merged != null) {
+                output.writeRawBytes(field.merged);
+            } else if (field.newName != null) {
+                TileRewriter.writeRenamed(output, field.buffer, field.offset, field.end - field.offset,
+                        field.newName);
+            } else if (field.name == null || layersByName.get(field.name).size() == 1
+                    || conflict == Conflict.RENAME) {
+                TileRewriter.copy(output, field.buffer, field.start, field.end);
+            }
+            // the other layers of a merge are in the merged layer
+        }
+        output.flush();
+    }
+
+    private static String uniqueName(String name, Set<String> usedNames) {
+        for (int i = 2;; i++) {
+            String candidate = name + "_" + i;
+            if (usedNames.add(candidate)) {
+                return candidate;
+            }
+        }
+    }
+
+    /**
+     * Read the fields of the given layers, and check that they have the same
+     * extent.
+     */
+    private static void checkMergeable(String name, List<Field> layers) throws IOException {
+        LayerFields first = null;
+        for (Field layer : layers) {
+            layer.fields = new LayerFields(layer.buffer, layer.offset, layer.end);
+            if (first == null) {
+                first = layer.fields;
+            } else if (layer.fields.extent != first.extent) {
+                throw new IOException("Can not merge layer " + name + " with extents " + first.extent + " and "
+                        + layer.fields.extent);
+            }
+        }
+    }
+
+    /**
+     * Write the given layers as a single layer with combined key and value
+     * tables. Keys and values are compared by their encoded bytes, so they
+     * are never decoded.
+     */
+    private static void writeMerged(CodedOutputStream output, String name, List<Field> layers) throws IOException {
+        Map<ByteBuffer, Integer> keyIndex = new HashMap<ByteBuffer, Integer>();
+        List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+        Map<ByteBuffer, Integer> valueIndex = new HashMap<ByteBuffer, Integer>();
+        List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+
+        ByteArrayOutputStream featureBytes = new ByteArrayOutputStream();
+        CodedOutputStream features = CodedOutputStream.newInstance(featureBytes);
+
+        // the layers have the same extent, see checkMergeable
+        int extent = layers.get(0).fields.extent;
+        int version = 0;
+        int[] tags = new int[16];
+        for (Field layer : layers) {
+            LayerFields fields = layer.fields;
+            version = Math.max(version, fields.version);
+
+            int[] keyMap = remap(fields.keys, keyIndex, keys);
+            int[] valueMap = remap(fields.values, valueIndex, values);
+            boolean identity = isIdentity(keyMap) && isIdentity(valueMap);
+
+            for (int i = 0; i < fields.featureCount; i++) {
+                int offset = fields.featureOffsets[i];
+                int end = offset + fields.featureLengths[i];
+                if (identity) {
+                    features.writeTag(VectorTile.Tile.Layer.FEATURES_FIELD_NUMBER, WireReader.LENGTH_DELIMITED);
+                    features.writeUInt32NoTag(end - offset);
+                    TileRewriter.copy(features, layer.buffer, offset, end);
+                } else {
+                    tags = writeRemapped(features, layer.buffer, offset, end, keyMap, valueMap, tags);
+                }
+            }
+        }
+        features.flush();
+
+        int size = CodedOutputStream.computeStringSize(VectorTile.Tile.Layer.NAME_FIELD_NUMBER, name)
+                + featureBytes.size()
+                + CodedOutputStream.computeUInt32Size(VectorTile.Tile.Layer.EXTENT_FIELD_NUMBER, extent)
+                + CodedOutputStream.computeUInt32Size(VectorTile.Tile.Layer.VERSION_FIELD_NUMBER, version);
+        for (ByteBuffer key : keys) {
+            size += CodedOutputStream.computeTagSize(VectorTile.Tile.Layer.KEYS_FIELD_NUMBER)
+                    + CodedOutputStream.computeUInt32SizeNoTag(key.remaining()) + key.remaining();
+        }
+        for (ByteBuffer value : values) {
+            size += CodedOutputStream.computeTagSize(VectorTile.Tile.Layer.VALUES_FIELD_NUMBER)
+                    + CodedOutputStream.computeUInt32SizeNoTag(value.remaining()) + value.remaining();
+        }
+
+        output.writeTag(VectorTile.Tile.LAYERS_FIELD_NUMBER, WireReader.LENGTH_DELIMITED);
+        output.writeUInt32NoTag(size);
+        output.writeString(VectorTile.Tile.Layer.NAME_FIELD_NUMBER, name);
+        byte[] bytes = featureBytes.toByteArray();
+        output.writeRawBytes(bytes, 0, bytes.length);
+        for (ByteBuffer key : keys) {
+            output.writeTag(VectorTile.Tile.Layer.KEYS_FIELD_NUMBER, WireReader.LENGTH_DELIMITED);
+            output.writeUInt32NoTag(key.remaining());
+            output.writeRawBytes(key);
+        }
+        for (ByteBuffer value : values) {
+            output.writeTag(VectorTile.Tile.Layer.VALUES_FIELD_NUMBER, WireReader.LENGTH_DELIMITED);
+            output.writeUInt32NoTag(value.remaining());
+            output.writeRawBytes(value);
+        }
+        output.writeUInt32(VectorTile.Tile.Layer.EXTENT_FIELD_NUMBER, extent);
+        output.writeUInt32(VectorTile.Tile.Layer.VERSION_FIELD_NUMBER, version);
+    }
+
+    /**
+     * Add the entries of a layer table to a combined table.
+     *
+     * @return the index in the combined table of each entry
+     */
+    private static int[] remap(List<ByteBuffer> entries, Map<ByteBuffer, Integer> index, List<ByteBuffer> combined) {
+        int[] map = new int[entries.size()];
+        for (int i = 0; i < map.length; i++) {
+            ByteBuffer entry = entries.get(i);
+            Integer position = index.get(entry);
+            if (position == null) {
+                position = combined.size();
+                combined.add(entry);
+                index.put(entry, position);
+            }
+            map[i] = position;
+        }
+        return map;
+    }
+
+    private static boolean isIdentity(int[] map) {
+        for (int i = 0; i < map.length; i++) {
+            if (map[i] != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write a feature with its tags remapped to the combined tables and
+     * written first as a packed field, followed by all the other fields of
+     * the feature as they are.
+     *
+     * @return the tags array, which may have been grown
+     */
+    private static int[] writeRemapped(CodedOutputStream output, ByteBuffer buffer, int offset, int end,
+            int[] keyMap, int[] valueMap, int[] tags) throws IOException {
+        int tagCount = 0;
+        int tagFieldSize = 0;
+        WireReader r = new WireReader(buffer);
+        r.reset(offset, end);
+        while (r.hasRemaining()) {
+            int fieldStart = r.position;
+            int tag = r.readTag();
+            int wireType = WireReader.wireType(tag);
+            if (WireReader.fieldNumber(tag) != VectorTile.Tile.Feature.TAGS_FIELD_NUMBER) {
+                r.skip(wireType);
+                continue;
+            }
+            if (wireType == WireReader.LENGTH_DELIMITED) {
+                // read the packed tags with the end of the field as limit, so a
+                // varint can not run into the next field
+                int packedEnd = r.readLength() + r.position;
+                r.reset(r.position, packedEnd);
+                while (r.hasRemaining()) {
+                    if (tagCount == tags.length) {
+                        tags = Arrays.copyOf(tags, tagCount * 2);
+                    }
+                    tags[tagCount++] = r.readVarint32();
+                }
+                r.reset(packedEnd, end);
+            } else if (wireType == WireReader.VARINT) {
+                if (tagCount == tags.length) {
+                    tags = Arrays.copyOf(tags, tagCount * 2);
+                }
+                tags[tagCount++] = r.readVarint32();
+            } else {
+                r.skip(wireType);
+            }
+            tagFieldSize += r.position - fieldStart;
+        }
+
+        int packedSize = 0;
+        for (int i = 0; i < tagCount; i++) {
+            int[] map = (i & 1) == 0 ? keyMap : valueMap;
+            int index = tags[i];
+            if (index < 0 || index >= map.length) {
+                throw new IOException("Tag index " + index + " is outside the layer table of " + map.length);
+            }
+            tags[i] = map[index];
+            packedSize += CodedOutputStream.computeUInt32SizeNoTag(tags[i]);
+        }
+
+        int length = end - offset - tagFieldSize;
+        if (tagCount > 0) {
+            length += CodedOutputStream.computeTagSize(VectorTile.Tile.Feature.TAGS_FIELD_NUMBER)
+                    + CodedOutputStream.computeUInt32SizeNoTag(packedSize) + packedSize;
+        }
+
+        output.writeTag(VectorTile.Tile.Layer.FEATURES_FIELD_NUMBER, WireReader.LENGTH_DELIMITED);
+        output.writeUInt32NoTag(length);
+        if (tagCount > 0) {
+            output.writeTag(VectorTile.Tile.Feature.TAGS_FIELD_NUMBER, WireReader.LENGTH_DELIMITED);
+            output.writeUInt32NoTag(packedSize);
+            for (int i = 0; i < tagCount; i++) {
+                output.writeUInt32NoTag(tags[i]);
+            }
+        }
+        TileRewriter.copyExcept(output, buffer, offset, end, VectorTile.Tile.Feature.TAGS_FIELD_NUMBER);
+        return tags;
+    }
+
+    /**
+     * A top level field of one of the tiles.
+     */
+    private static final class Field {
+
+        final ByteBuffer buffer;
+
+        final int start;
+
+        // the start of the layer message, after its tag and length
+        final int offset;
+
+        int end;
+
+        // the layer name, or null for other fields
+        final String name;
+
+        // the fields of a layer that is merged
+        LayerFields fields;
+
+        // the new name of a renamed layer
+        String newName;
+
+        // the encoded merged layer, set on the first of the merged layers
+        byte[] merged;
+
+        Field(ByteBuffer buffer, int start, int offset, String name) {
+            this.buffer = buffer;
+            this.start = start;
+            this.offset = offset;
+            this.end = offset;
+            this.name = name;
+        }
+
+    }
+
+    /**
+     * The raw keys, values and features of a layer.
+     */
+    private static final class LayerFields {
+
+        int version = 1;
+        int extent = 4096;
+
+        final List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+        final List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+
+        int featureCount;
+        int[] featureOffsets = new int[16];
+        int[] featureLengths = new int[16];
+
+        LayerFields(ByteBuffer buffer, int offset, int end) throws IOException {
+            WireReader r = new WireReader(buffer);
+            r.reset(offset, end);
+            while (r.hasRemaining()) {
+                int tag = r.readTag();
+                int wireType = WireReader.wireType(tag);
+                int fieldNumber = WireReader.fieldNumber(tag);
+                if (wireType == WireReader.LENGTH_DELIMITED
+                        && (fieldNumber == VectorTile.Tile.Layer.KEYS_FIELD_NUMBER
+                                || fieldNumber == VectorTile.Tile.Layer.VALUES_FIELD_NUMBER
+                                || fieldNumber == VectorTile.Tile.Layer.FEATURES_FIELD_NUMBER)) {
+                    int length = r.readLength();
+                    if (fieldNumber == VectorTile.Tile.Layer.KEYS_FIELD_NUMBER) {
+                        keys.add(WireReader.slice(buffer, r.position, length));
+                    } else if (fieldNumber == VectorTile.Tile.Layer.VALUES_FIELD_NUMBER) {
+                        values.add(WireReader.slice(buffer, r.position, length));
+                    } else {
+                        if (featureCount == featureOffsets.length) {
+                            featureOffsets = Arrays.copyOf(featureOffsets, featureCount * 2);
+                            featureLengths = Arrays.copyOf(featureLengths, featureCount * 2);
+                        }
+                        featureOffsets[featureCount] = r.position;
+                        featureLengths[featureCount++] = length;
+                    }
+                    r.position += length;
+                } else if (wireType == WireReader.VARINT
+                        && fieldNumber == VectorTile.Tile.Layer.EXTENT_FIELD_NUMBER) {
+                    extent = r.readVarint32();
+                } else if (wireType == WireReader.VARINT
+                        && fieldNumber == VectorTile.Tile.Layer.VERSION_FIELD_NUMBER) {
+                    version = r.readVarint32();
+                } else {
+                    r.skip(wireType);
+                }
+            }
+        }
+
+    }
+
+}
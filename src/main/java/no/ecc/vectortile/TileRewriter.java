@@ -0,0 +1,240 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.protobuf.CodedOutputStream;
+
+import vector_tile.VectorTile;
+
+/**
+ * Creates a new tile from some of the layers of an encoded tile, by copying
+ * the bytes of each kept layer as they are. No features, geometries or
+ * attributes are decoded or encoded, so the kept layers are identical to
+ * the input, down to every coordinate.
+ * <p>
+ * Layers are selected with a {@link Filter} on their original names, and can
+ * be renamed with {@link #rename(String, String)}. Only the name field of a
+ * renamed layer is written again, the rest of the layer is copied. Other
+ * fields of the tile are copied as well.
+ * <p>
+ * Instances can be used by many threads as long as they are not changed.
+ */
+public final class TileRewriter {
+
+    private Filter filter = Filter.ALL;
+
+    private final Map<String, String> renames = new HashMap<String, String>();
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @param filter a {@link Filter} on the original layer names, to select
+     *            the layers to keep
+     */
+    public void setFilter(Filter filter) {
+        if (filter == null) {
+            throw new NullPointerException("filter");
+        }
+        this.filter = filter;
+    }
+
+    /**
+     * Rename a layer when it is kept by the filter.
+     *
+     * @param layerName the original name of the layer
+     * @param newName the name to write instead, or null to keep the original
+     *            name. A tile where two kept layers would end up with the
+     *            same name can not be rewritten.
+     */
+    public void rename(String layerName, String newName) {
+        if (newName == null || newName.equals(layerName)) {
+            renames.remove(layerName);
+        } else {
+            renames.put(layerName, newName);
+        }
+    }
+
+    /**
+     * @return the new name of each renamed layer by its original name
+     */
+    public Map<String, String> getRenames() {
+        return Collections.unmodifiableMap(renames);
+    }
+
+    public byte[] rewrite(byte[] data) throws IOException {
+        return rewrite(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Rewrite the tile between the position and the limit of the given
+     * buffer. The position of the buffer is not changed.
+     *
+     * @param buffer a {@link ByteBuffer} with an encoded vector tile
+     * @return the new encoded tile
+     * @throws IOException when the tile is malformed
+     */
+    public byte[] rewrite(ByteBuffer buffer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(buffer.remaining());
+        rewrite(buffer, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rewrite the tile between the position and the limit of the given
+     * buffer to the given stream. The position of the buffer is not changed
+     * and the stream is not closed.
+     *
+     * @param buffer a {@link ByteBuffer} with an encoded vector tile
+     * @param out the {@link OutputStream} to write the new tile to
+     * @throws IOException when the tile is malformed, when a renamed layer
+     *             would have the same name as another kept layer, or when
+     *             the tile can not be written. Nothing is written to the
+     *             stream if the layer names collide.
+     */
+    public void rewrite(ByteBuffer buffer, OutputStream out) throws IOException {
+        if (!renames.isEmpty()) {
+            checkNames(buffer);
+        }
+
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        WireReader r = new WireReader(buffer);
+        r.reset(buffer.position(), buffer.limit());
+        while (r.hasRemaining()) {
+            int fieldStart = r.position;
+            int tag = r.readTag();
+            int wireType = WireReader.wireType(tag);
+            if (WireReader.fieldNumber(tag) != VectorTile.Tile.LAYERS_FIELD_NUMBER
+                    || wireType != WireReader.LENGTH_DELIMITED) {
+                r.skip(wireType);
+                copy(output, buffer, fieldStart, r.position);
+                continue;
+            }
+
+            int length = r.readLength();
+            int offset = r.position;
+            r.position += length;
+
+            String layerName = VectorTileBuffer.layerName(buffer, offset, length);
+            if (!filter.include(layerName)) {
+                continue;
+            }
+            String newName = renames.get(layerName);
+            if (newName == null) {
+                copy(output, buffer, fieldStart, r.position);
+            } else {
+                writeRenamed(output, buffer, offset, length, newName);
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * Check that no two kept layers with different original names are
+     * written with the same name.
+     */
+    private void checkNames(ByteBuffer buffer) throws IOException {
+        Map<String, String> originalNames = new HashMap<String, String>();
+        VectorTileBuffer.LayerCursor layer = new VectorTileBuffer(buffer).layers();
+        while (layer.next()) {
+            String layerName = layer.name();
+            if (!filter.include(layerName)) {
+                continue;
+            }
+            String newName = renames.get(layerName);
+            String name = newName == null ? layerName : newName;
+            String other = originalNames.put(name, layerName);
+            if (other != null && !other.equals(layerName)) {
+                throw new IOException("Layers " + other + " and " + layerName + " would both be named " + name);
+            }
+        }
+    }
+
+    /**
+     * Write a layer with a new name field first, followed by all the other
+     * fields of the layer as they are.
+     */
+    static void writeRenamed(CodedOutputStream output, ByteBuffer buffer, int offset, int length, String newName)
+            throws IOException {
+        int end = offset + length;
+        int nameSize = fieldSize(buffer, offset, end, VectorTile.Tile.Layer.NAME_FIELD_NUMBER);
+
+        output.writeTag(VectorTile.Tile.LAYERS_FIELD_NUMBER, WireReader.LENGTH_DELIMITED);
+        output.writeUInt32NoTag(length - nameSize
+                + CodedOutputStream.computeStringSize(VectorTile.Tile.Layer.NAME_FIELD_NUMBER, newName));
+        output.writeString(VectorTile.Tile.Layer.NAME_FIELD_NUMBER, newName);
+        copyExcept(output, buffer, offset, end, VectorTile.Tile.Layer.NAME_FIELD_NUMBER);
+    }
+
+    /**
+     * @return the number of bytes taken by all fields with the given number,
+     *         tags included, in the given range of a message
+     */
+    static int fieldSize(ByteBuffer buffer, int offset, int end, int fieldNumber) throws IOException {
+        int size = 0;
+        WireReader r = new WireReader(buffer);
+        r.reset(offset, end);
+        while (r.hasRemaining()) {
+            int fieldStart = r.position;
+            int tag = r.readTag();
+            r.skip(WireReader.wireType(tag));
+            if (WireReader.fieldNumber(tag) == fieldNumber) {
+                size += r.position - fieldStart;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Copy the fields in the given range of a message as they are, except
+     * the fields with the given number, in runs of consecutive fields.
+     */
+    static void copyExcept(CodedOutputStream output, ByteBuffer buffer, int offset, int end, int fieldNumber)
+            throws IOException {
+        int runStart = offset;
+        WireReader r = new WireReader(buffer);
+        r.reset(offset, end);
+        while (r.hasRemaining()) {
+            int fieldStart = r.position;
+            int tag = r.readTag();
+            r.skip(WireReader.wireType(tag));
+            if (WireReader.fieldNumber(tag) == fieldNumber) {
+                copy(output, buffer, runStart, fieldStart);
+                runStart = r.position;
+            }
+        }
+        copy(output, buffer, runStart, end);
+    }
+
+    static void copy(CodedOutputStream output, ByteBuffer buffer, int from, int to) throws IOException {
+        if (to > from) {
+            output.writeRawBytes(WireReader.slice(buffer, from, to - from));
+        }
+    }
+
+}
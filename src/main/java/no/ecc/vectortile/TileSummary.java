@@ -0,0 +1,218 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import vector_tile.VectorTile.Tile.GeomType;
+
+/**
+ * A summary of the layers of a tile, read from the wire structure only.
+ * <p>
+ * Layer names are decoded, but no keys, values or geometries are. For each
+ * feature only its type is read, while its tags and geometry are skipped
+ * over by length.
+ */
+public final class TileSummary {
+
+    private final int byteSize;
+
+    private final List<LayerSummary> layers;
+
+    private TileSummary(int byteSize, List<LayerSummary> layers) {
+        this.byteSize = byteSize;
+        this.layers = Collections.unmodifiableList(layers);
+    }
+
+    public static TileSummary scan(byte[] data) throws IOException {
+        return scan(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Summarize the tile between the position and the limit of the given
+     * buffer. The position of the buffer is not changed.
+     *
+     * @param buffer a {@link ByteBuffer} with an encoded vector tile
+     * @return the {@link TileSummary}
+     * @throws IOException when the tile is malformed
+     */
+    public static TileSummary scan(ByteBuffer buffer) throws IOException {
+        List<LayerSummary> layers = new ArrayList<LayerSummary>();
+        VectorTileBuffer.LayerCursor layer = new VectorTileBuffer(buffer).layers();
+        while (layer.next()) {
+            int[] typeCounts = new int[GeomType.values().length];
+            VectorTileBuffer.FeatureCursor feature = layer.features();
+            while (feature.next()) {
+                typeCounts[feature.type().ordinal()]++;
+            }
+            layers.add(new LayerSummary(layer.name(), layer.version(), layer.extent(), layer.featureCount(),
+                    layer.keyCount(), layer.valueCount(), layer.length(), typeCounts));
+        }
+        return new TileSummary(buffer.remaining(), layers);
+    }
+
+    /**
+     * @return the size of the encoded tile in bytes
+     */
+    public int getByteSize() {
+        return byteSize;
+    }
+
+    /**
+     * @return the layers in the order they appear in the tile
+     */
+    public List<LayerSummary> getLayers() {
+        return layers;
+    }
+
+    /**
+     * @param name the name of a layer
+     * @return the first layer with the given name, or null when there is none
+     */
+    public LayerSummary getLayer(String name) {
+        for (LayerSummary layer : layers) {
+            if (layer.getName().equals(name)) {
+                return layer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the layer names in the order they appear in the tile
+     */
+    public List<String> getLayerNames() {
+        List<String> names = new ArrayList<String>(layers.size());
+        for (LayerSummary layer : layers) {
+            names.add(layer.getName());
+        }
+        return names;
+    }
+
+    /**
+     * @return the number of features in all layers
+     */
+    public int getFeatureCount() {
+        int count = 0;
+        for (LayerSummary layer : layers) {
+            count += layer.getFeatureCount();
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "TileSummary[" + byteSize + " bytes, " + layers + "]";
+    }
+
+    /**
+     * The summary of a single layer.
+     */
+    public static final class LayerSummary {
+
+        private final String name;
+        private final int version;
+        private final int extent;
+        private final int featureCount;
+        private final int keyCount;
+        private final int valueCount;
+        private final int byteSize;
+        private final int[] typeCounts;
+
+        LayerSummary(String name, int version, int extent, int featureCount, int keyCount, int valueCount,
+                int byteSize, int[] typeCounts) {
+            this.name = name;
+            this.version = version;
+            this.extent = extent;
+            this.featureCount = featureCount;
+            this.keyCount = keyCount;
+            this.valueCount = valueCount;
+            this.byteSize = byteSize;
+            this.typeCounts = typeCounts;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public int getExtent() {
+            return extent;
+        }
+
+        public int getFeatureCount() {
+            return featureCount;
+        }
+
+        public int getKeyCount() {
+            return keyCount;
+        }
+
+        public int getValueCount() {
+            return valueCount;
+        }
+
+        /**
+         * @return the size of the encoded layer message in bytes
+         */
+        public int getByteSize() {
+            return byteSize;
+        }
+
+        /**
+         * @param type a {@link GeomType}
+         * @return the number of features of the given geometry type
+         */
+        public int getFeatureCount(GeomType type) {
+            return typeCounts[type.ordinal()];
+        }
+
+        /**
+         * @return the number of features for each geometry type that occurs
+         *         in the layer
+         */
+        public Map<GeomType, Integer> getGeometryTypes() {
+            Map<GeomType, Integer> types = new EnumMap<GeomType, Integer>(GeomType.class);
+            for (GeomType type : GeomType.values()) {
+                if (typeCounts[type.ordinal()] > 0) {
+                    types.put(type, typeCounts[type.ordinal()]);
+                }
+            }
+            return types;
+        }
+
+        @Override
+        public String toString() {
+            return name + "[v" + version + ", extent " + extent + ", " + featureCount + " features "
+                    + getGeometryTypes() + ", " + keyCount + " keys, " + valueCount + " values, " + byteSize
+                    + " bytes]";
+        }
+
+    }
+
+}
@@ -0,0 +1,952 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import vector_tile.VectorTile;
+import vector_tile.VectorTile.Tile.GeomType;
+
+/**
+ * A flyweight, read-only view of an encoded vector tile in a
+ * {@link ByteBuffer}, heap or direct.
+ * <p>
+ * Nothing is decoded up front. Layers and features are exposed as reusable
+ * cursors that only hold offsets into the buffer, and varints, strings and
+ * geometries are decoded when asked for. The cost of reading a tile is
+ * therefore proportional to what the caller actually reads.
+ *
+ * <pre>
+ * VectorTileBuffer tile = new VectorTileBuffer(buffer);
+ * VectorTileBuffer.LayerCursor layer = tile.layers();
+ * while (layer.next()) {
+ *     VectorTileBuffer.FeatureCursor feature = layer.features();
+ *     while (feature.next()) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * <p>
+ * The bytes between the position and the limit of the buffer at construct
+ * time are read. The position and limit of the buffer are never changed.
+ * Cursors are not thread safe, but separate cursors over the same
+ * {@link VectorTileBuffer} can be used from different threads.
+ */
+public final class VectorTileBuffer {
+
+    private final ByteBuffer buffer;
+
+    private final int start;
+
+    private final int end;
+
+    private final StringPool stringPool;
+
+    public VectorTileBuffer(ByteBuffer buffer) {
+        this(buffer, null);
+    }
+
+    /**
+     * @param buffer the encoded tile
+     * @param stringPool a {@link StringPool} to look up layer names, keys and
+     *            string values in, or null to always create new strings
+     */
+    public VectorTileBuffer(ByteBuffer buffer, StringPool stringPool) {
+        this.buffer = buffer;
+        this.start = buffer.position();
+        this.end = buffer.limit();
+        this.stringPool = stringPool;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return a new {@link LayerCursor} positioned before the first layer
+     */
+    public LayerCursor layers() {
+        return new LayerCursor(new WireReader(buffer, stringPool), start, end);
+    }
+
+    /**
+     * @return a new {@link TileCursor} positioned before the first feature
+     */
+    public TileCursor cursor() {
+        return cursor(Filter.ALL);
+    }
+
+    /**
+     * @param filter a {@link Filter} to select layers with
+     * @return a new {@link TileCursor} positioned before the first feature
+     *         of the included layers
+     */
+    public TileCursor cursor(Filter filter) {
+        return new TileCursor(layers(), filter);
+    }
+
+    /**
+     * A cursor over the layers of a tile.
+     */
+    public static final class LayerCursor {
+
+        private final WireReader reader;
+
+        private final WireReader layerReader;
+
+        private final int start;
+
+        private final int end;
+
+        private int position;
+
+        private int offset = -1;
+        private int length;
+        private boolean scanned;
+
+        private int nameOffset;
+        private int nameLength;
+        private String name;
+        private int version;
+        private int extent;
+        private int featureCount;
+
+        private int keyCount;
+        private int[] keyOffsets = new int[16];
+        private int[] keyLengths = new int[16];
+
+        private int valueCount;
+        private int[] valueOffsets = new int[16];
+        private int[] valueLengths = new int[16];
+
+        private FeatureCursor features;
+
+        LayerCursor(WireReader reader, int start, int end) {
+            this.reader = reader;
+            this.layerReader = new WireReader(reader.buffer(), reader.stringPool());
+            this.start = start;
+            this.position = start;
+            this.end = end;
+        }
+
+        /**
+         * Move back to before the first layer.
+         */
+        void rewind() {
+            position = start;
+            offset = -1;
+        }
+
+        /**
+         * Move to the next layer.
+         *
+         * @return false when there are no more layers
+         * @throws IOException when the tile is malformed
+         */
+        public boolean next() throws IOException {
+            reader.reset(position, end);
+            while (reader.hasRemaining()) {
+                int tag = reader.readTag();
+                if (WireReader.fieldNumber(tag) == VectorTile.Tile.LAYERS_FIELD_NUMBER
+                        && WireReader.wireType(tag) == WireReader.LENGTH_DELIMITED) {
+                    length = reader.readLength();
+                    offset = reader.position;
+                    scanned = false;
+                    name = null;
+                    nameLength = -1;
+                    position = offset + length;
+                    return true;
+                }
+                reader.skip(WireReader.wireType(tag));
+            }
+            position = end;
+            offset = -1;
+            return false;
+        }
+
+        /**
+         * Walk the fields of the current layer once to find the keys, values
+         * and features. Done on first use, so that layers that are only
+         * checked by name are never scanned.
+         */
+        private void scan() throws IOException {
+            checkLayer();
+            if (scanned) {
+                return;
+            }
+            nameOffset = 0;
+            nameLength = 0;
+            version = 1;
+            extent = 4096;
+            featureCount = 0;
+            keyCount = 0;
+            valueCount = 0;
+
+            WireReader r = layerReader;
+            r.reset(offset, offset + length);
+            while (r.hasRemaining()) {
+                int tag = r.readTag();
+                int wireType = WireReader.wireType(tag);
+                switch (WireReader.fieldNumber(tag)) {
+                case VectorTile.Tile.Layer.NAME_FIELD_NUMBER:
+                    if (wireType != WireReader.LENGTH_DELIMITED) {
+                        r.skip(wireType);
+                        break;
+                    }
+                    nameLength = r.readLength();
+                    nameOffset = r.position;
+                    r.position += nameLength;
+                    break;
+                case VectorTile.Tile.Layer.FEATURES_FIELD_NUMBER:
+                    featureCount++;
+                    r.skip(wireType);
+                    break;
+                case VectorTile.Tile.Layer.KEYS_FIELD_NUMBER:
+                    if (wireType != WireReader.LENGTH_DELIMITED) {
+                        r.skip(wireType);
+                        break;
+                    }
+                    if (keyCount == keyOffsets.length) {
+                        keyOffsets = grow(keyOffsets);
+                        keyLengths = grow(keyLengths);
+                    }
+                    keyLengths[keyCount] = r.readLength();
+                    keyOffsets[keyCount] = r.position;
+                    r.position += keyLengths[keyCount++];
+                    break;
+                case VectorTile.Tile.Layer.VALUES_FIELD_NUMBER:
+                    if (wireType != WireReader.LENGTH_DELIMITED) {
+                        r.skip(wireType);
+                        break;
+                    }
+                    if (valueCount == valueOffsets.length) {
+                        valueOffsets = grow(valueOffsets);
+                        valueLengths = grow(valueLengths);
+                    }
+                    valueLengths[valueCount] = r.readLength();
+                    valueOffsets[valueCount] = r.position;
+                    r.position += valueLengths[valueCount++];
+                    break;
+                case VectorTile.Tile.Layer.EXTENT_FIELD_NUMBER:
+                    if (wireType != WireReader.VARINT) {
+                        r.skip(wireType);
+                        break;
+                    }
+                    extent = r.readVarint32();
+                    break;
+                case VectorTile.Tile.Layer.VERSION_FIELD_NUMBER:
+                    if (wireType != WireReader.VARINT) {
+                        r.skip(wireType);
+                        break;
+                    }
+                    version = r.readVarint32();
+                    break;
+                default:
+                    r.skip(wireType);
+                    break;
+                }
+            }
+            scanned = true;
+        }
+
+        /**
+         * Find the name of the current layer, which is normally the first
+         * field, without scanning the rest of the layer.
+         */
+        private void findName() throws IOException {
+            checkLayer();
+            if (nameLength >= 0) {
+                return;
+            }
+            WireReader r = layerReader;
+            r.reset(offset, offset + length);
+            while (r.hasRemaining()) {
+                int tag = r.readTag();
+                int wireType = WireReader.wireType(tag);
+                if (WireReader.fieldNumber(tag) == VectorTile.Tile.Layer.NAME_FIELD_NUMBER
+                        && wireType == WireReader.LENGTH_DELIMITED) {
+                    nameLength = r.readLength();
+                    nameOffset = r.position;
+                    return;
+                }
+                r.skip(wireType);
+            }
+            nameOffset = 0;
+            nameLength = 0;
+        }
+
+        private void checkLayer() {
+            if (offset < 0) {
+                throw new IllegalStateException("Not positioned on a layer");
+            }
+        }
+
+        /**
+         * @return the offset of the current layer message in the buffer
+         */
+        public int offset() {
+            checkLayer();
+            return offset;
+        }
+
+        /**
+         * @return the length of the current layer message in bytes
+         */
+        public int length() {
+            checkLayer();
+            return length;
+        }
+
+        public String name() throws IOException {
+            findName();
+            if (name == null) {
+                name = layerReader.string(nameOffset, nameLength);
+            }
+            return name;
+        }
+
+        /**
+         * Compare the name of the current layer without decoding it.
+         *
+         * @param layerName a {@link String} to compare with
+         * @return true when the current layer has the given name
+         * @throws IOException when the layer is malformed
+         */
+        public boolean nameEquals(String layerName) throws IOException {
+            findName();
+            if (name != null) {
+                return name.equals(layerName);
+            }
+            for (int i = 0; i < layerName.length(); i++) {
+                if (layerName.charAt(i) >= 0x80) {
+                    return name().equals(layerName);
+                }
+            }
+            if (layerName.length() != nameLength) {
+                return false;
+            }
+            ByteBuffer buffer = layerReader.buffer();
+            for (int i = 0; i < nameLength; i++) {
+                if (buffer.get(nameOffset + i) != layerName.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public int version() throws IOException {
+            scan();
+            return version;
+        }
+
+        public int extent() throws IOException {
+            scan();
+            return extent;
+        }
+
+        public int featureCount() throws IOException {
+            scan();
+            return featureCount;
+        }
+
+        public int keyCount() throws IOException {
+            scan();
+            return keyCount;
+        }
+
+        public String key(int index) throws IOException {
+            scan();
+            if (index < 0 || index >= keyCount) {
+                throw new IndexOutOfBoundsException("key " + index + " of " + keyCount);
+            }
+            return layerReader.string(keyOffsets[index], keyLengths[index]);
+        }
+
+        public int valueCount() throws IOException {
+            scan();
+            return valueCount;
+        }
+
+        /**
+         * Decode a value of the current layer to a {@link Boolean},
+         * {@link Double}, {@link Float}, {@link Long} or {@link String}, like
+         * {@link VectorTileDecoder} does.
+         *
+         * @param index the index of the value in the layer
+         * @return the decoded value, or null when the value has no known type
+         * @throws IOException when the value is malformed
+         */
+        public Object value(int index) throws IOException {
+            scan();
+            if (index < 0 || index >= valueCount) {
+                throw new IndexOutOfBoundsException("value " + index + " of " + valueCount);
+            }
+            return decodeValue(layerReader, valueOffsets[index], valueLengths[index]);
+        }
+
+        /**
+         * Get a cursor over the features of the current layer. The same
+         * {@link FeatureCursor} instance is reset and returned on every call.
+         *
+         * @return a {@link FeatureCursor} positioned before the first feature
+         */
+        public FeatureCursor features() {
+            checkLayer();
+            if (features == null) {
+                features = new FeatureCursor(this, new WireReader(reader.buffer()));
+            }
+            features.reset(offset, offset + length);
+            return features;
+        }
+
+    }
+
+    /**
+     * A cursor over the features of a layer.
+     */
+    public static final class FeatureCursor {
+
+        private final LayerCursor layer;
+
+        private final WireReader reader;
+
+        private final WireReader featureReader;
+
+        private int position;
+
+        private int end;
+
+        private int offset = -1;
+        private int length;
+
+        private boolean hasId;
+        private long id;
+        private int type;
+
+        private int[] tags = new int[16];
+        private int tagCount = -1;
+
+        private int[] commands = new int[64];
+        private int commandCount = -1;
+
+        FeatureCursor(LayerCursor layer, WireReader reader) {
+            this.layer = layer;
+            this.reader = reader;
+            this.featureReader = new WireReader(reader.buffer());
+        }
+
+        void reset(int position, int end) {
+            this.position = position;
+            this.end = end;
+            this.offset = -1;
+        }
+
+        /**
+         * Move to the next feature.
+         *
+         * @return false when there are no more features in the layer
+         * @throws IOException when the layer is malformed
+         */
+        public boolean next() throws IOException {
+            reader.reset(position, end);
+            while (reader.hasRemaining()) {
+                int tag = reader.readTag();
+                if (WireReader.fieldNumber(tag) == VectorTile.Tile.Layer.FEATURES_FIELD_NUMBER
+                        && WireReader.wireType(tag) == WireReader.LENGTH_DELIMITED) {
+                    int featureLength = reader.readLength();
+                    scan(reader.position, featureLength);
+                    position = reader.position + featureLength;
+                    return true;
+                }
+                reader.skip(WireReader.wireType(tag));
+            }
+            position = end;
+            offset = -1;
+            return false;
+        }
+
+        private void scan(int featureOffset, int featureLength) throws IOException {
+            offset = featureOffset;
+            length = featureLength;
+            hasId = false;
+            id = 0;
+            type = 0;
+            tagCount = -1;
+            commandCount = -1;
+
+            WireReader r = featureReader;
+            r.reset(featureOffset, featureOffset + featureLength);
+            while (r.hasRemaining()) {
+                int tag = r.readTag();
+                int wireType = WireReader.wireType(tag);
+                int fieldNumber = WireReader.fieldNumber(tag);
+                if (fieldNumber == VectorTile.Tile.Feature.ID_FIELD_NUMBER && wireType == WireReader.VARINT) {
+                    id = r.readVarint64();
+                    hasId = true;
+                } else if (fieldNumber == VectorTile.Tile.Feature.TYPE_FIELD_NUMBER
+                        && wireType == WireReader.VARINT) {
+                    type = r.readVarint32();
+                } else {
+                    r.skip(wireType);
+                }
+            }
+        }
+
+        private void checkFeature() {
+            if (offset < 0) {
+                throw new IllegalStateException("Not positioned on a feature");
+            }
+        }
+
+        /**
+         * @return the offset of the current feature message in the buffer
+         */
+        public int offset() {
+            checkFeature();
+            return offset;
+        }
+
+        /**
+         * @return the length of the current feature message in bytes
+         */
+        public int length() {
+            checkFeature();
+            return length;
+        }
+
+        public LayerCursor layer() {
+            return layer;
+        }
+
+        public boolean hasId() {
+            checkFeature();
+            return hasId;
+        }
+
+        public long id() {
+            checkFeature();
+            return id;
+        }
+
+        public GeomType type() {
+            checkFeature();
+            GeomType geomType = GeomType.forNumber(type);
+            return geomType == null ? GeomType.UNKNOWN : geomType;
+        }
+
+        /**
+         * @return the number of tag entries, which is twice the number of
+         *         attributes
+         * @throws IOException when the tags are malformed
+         */
+        public int tagCount() throws IOException {
+            checkFeature();
+            if (tagCount < 0) {
+                tagCount = 0;
+                tags = readRepeated(VectorTile.Tile.Feature.TAGS_FIELD_NUMBER, tags, true);
+            }
+            return tagCount;
+        }
+
+        /**
+         * @param index the index of the tag entry
+         * @return a key index at even and a value index at odd positions
+         * @throws IOException when the tags are malformed
+         */
+        public int tag(int index) throws IOException {
+            if (index < 0 || index >= tagCount()) {
+                throw new IndexOutOfBoundsException("tag " + index + " of " + tagCount);
+            }
+            return tags[index];
+        }
+
+        /**
+         * @return the number of geometry command integers
+         * @throws IOException when the geometry is malformed
+         */
+        public int commandCount() throws IOException {
+            checkFeature();
+            if (commandCount < 0) {
+                commandCount = 0;
+                commands = readRepeated(VectorTile.Tile.Feature.GEOMETRY_FIELD_NUMBER, commands, false);
+            }
+            return commandCount;
+        }
+
+        /**
+         * @param index the index of the geometry command integer
+         * @return the raw, still zigzag encoded, command integer
+         * @throws IOException when the geometry is malformed
+         */
+        public int command(int index) throws IOException {
+            if (index < 0 || index >= commandCount()) {
+                throw new IndexOutOfBoundsException("command " + index + " of " + commandCount);
+            }
+            return commands[index];
+        }
+
+        /**
+         * Decode the geometry of the current feature to a JTS
+         * {@link Geometry}.
+         *
+         * @param gf the {@link GeometryFactory} to create the geometry with
+         * @param autoScale when true, scale to the 0..255 range. when false,
+         *            use the 0..extent-1 range as encoded.
+         * @return a {@link Geometry}, which is empty when there is no geometry
+         * @throws IOException when the geometry is malformed
+         */
+        public Geometry geometry(GeometryFactory gf, boolean autoScale) throws IOException {
+            GeometryBuffer buffer = geometry(VectorTileDecoder.scratch());
+            double scale = autoScale ? layer.extent() / 256.0 : 1.0;
+            return VectorTileDecoder.decodeGeometry(gf, buffer, scale);
+        }
+
+        /**
+         * Decode the geometry of the current feature as integer tile
+         * coordinates into the given buffer.
+         *
+         * @param buffer the {@link GeometryBuffer} to fill, or null to create
+         *            a new one
+         * @return the filled buffer
+         * @throws IOException when the geometry is malformed
+         */
+        public GeometryBuffer geometry(GeometryBuffer buffer) throws IOException {
+            if (buffer == null) {
+                buffer = new GeometryBuffer();
+            }
+            int count = commandCount();
+            return buffer.decode(type(), commands, count);
+        }
+
+        /**
+         * Send the geometry of the current feature to the given visitor,
+         * straight from the command integers and without allocating.
+         *
+         * @param visitor the {@link GeometryVisitor} to call
+         * @param autoScale when true, scale to the 0..255 range. when false,
+         *            use the 0..extent-1 range as encoded.
+         * @throws IOException when the geometry is malformed
+         */
+        public void geometry(GeometryVisitor visitor, boolean autoScale) throws IOException {
+            int count = commandCount();
+            double scale = autoScale ? layer.extent() / 256.0 : 1.0;
+            VectorTileDecoder.visitGeometry(type(), commands, count, scale, visitor);
+        }
+
+        /**
+         * Read a packed or unpacked repeated uint32 field of the current
+         * feature into the given array, growing it as needed.
+         */
+        private int[] readRepeated(int fieldNumber, int[] into, boolean isTags) throws IOException {
+            int count = 0;
+            WireReader r = featureReader;
+            r.reset(offset, offset + length);
+            while (r.hasRemaining()) {
+                int tag = r.readTag();
+                int wireType = WireReader.wireType(tag);
+                if (WireReader.fieldNumber(tag) != fieldNumber) {
+                    r.skip(wireType);
+                } else if (wireType == WireReader.LENGTH_DELIMITED) {
+                    int packedEnd = r.readLength() + r.position;
+                    int needed = count + r.countVarints(r.position, packedEnd);
+                    if (needed > into.length) {
+                        into = Arrays.copyOf(into, Math.max(needed, into.length * 2));
+                    }
+                    int limit = r.limit;
+                    r.limit = packedEnd;
+                    while (r.hasRemaining()) {
+                        into[count++] = r.readVarint32();
+                    }
+                    r.limit = limit;
+                } else if (wireType == WireReader.VARINT) {
+                    if (count == into.length) {
+                        into = grow(into);
+                    }
+                    into[count++] = r.readVarint32();
+                } else {
+                    r.skip(wireType);
+                }
+            }
+            if (isTags) {
+                tagCount = count;
+            } else {
+                commandCount = count;
+            }
+            return into;
+        }
+
+    }
+
+    /**
+     * A single cursor over all features of all included layers of a tile.
+     * <p>
+     * The same cursor, and the arrays it decodes into, are reused for every
+     * feature, so iterating a tile does not allocate per feature. Layer names
+     * are decoded once per layer, and not at all in steady state when a
+     * {@link StringPool} is used.
+     *
+     * <pre>
+     * VectorTileBuffer.TileCursor cursor = new VectorTileBuffer(buffer).cursor();
+     * GeometryBuffer geometry = new GeometryBuffer();
+     * while (cursor.next()) {
+     *     cursor.geometry(geometry);
+     *     ...
+     * }
+     * </pre>
+     */
+    public static final class TileCursor {
+
+        private final LayerCursor layers;
+
+        private final Filter filter;
+
+        private FeatureCursor features;
+
+        TileCursor(LayerCursor layers, Filter filter) {
+            this.layers = layers;
+            this.filter = filter;
+        }
+
+        /**
+         * Move to the next feature, moving on to the next included layer when
+         * needed.
+         *
+         * @return false when there are no more features
+         * @throws IOException when the tile is malformed
+         */
+        public boolean next() throws IOException {
+            while (true) {
+                if (features != null && features.next()) {
+                    return true;
+                }
+                if (!layers.next()) {
+                    features = null;
+                    return false;
+                }
+                if (filter == Filter.ALL || filter.include(layers.name())) {
+                    features = layers.features();
+                } else {
+                    features = null;
+                }
+            }
+        }
+
+        /**
+         * Move back to before the first feature, keeping the arrays that were
+         * grown while iterating, so that iterating the tile again does not
+         * allocate.
+         */
+        public void rewind() {
+            layers.rewind();
+            features = null;
+        }
+
+        private FeatureCursor feature() {
+            if (features == null) {
+                throw new IllegalStateException("Not positioned on a feature");
+            }
+            return features;
+        }
+
+        /**
+         * @return the {@link LayerCursor} of the current layer, to look up
+         *         keys and values with
+         */
+        public LayerCursor layer() {
+            return layers;
+        }
+
+        public String layerName() throws IOException {
+            return feature().layer().name();
+        }
+
+        public int extent() throws IOException {
+            return feature().layer().extent();
+        }
+
+        public boolean hasId() {
+            return feature().hasId();
+        }
+
+        public long id() {
+            return feature().id();
+        }
+
+        public GeomType type() {
+            return feature().type();
+        }
+
+        /**
+         * @return the number of tag entries, which is twice the number of
+         *         attributes
+         * @throws IOException when the tags are malformed
+         */
+        public int tagCount() throws IOException {
+            return feature().tagCount();
+        }
+
+        /**
+         * @param index the index of the tag entry
+         * @return a key index at even and a value index at odd positions
+         * @throws IOException when the tags are malformed
+         */
+        public int tag(int index) throws IOException {
+            return feature().tag(index);
+        }
+
+        /**
+         * Decode the geometry of the current feature as integer tile
+         * coordinates into the given buffer.
+         *
+         * @param into the {@link GeometryBuffer} to fill, or null to create a
+         *            new one
+         * @return the filled buffer
+         * @throws IOException when the geometry is malformed
+         */
+        public GeometryBuffer geometry(GeometryBuffer into) throws IOException {
+            return feature().geometry(into);
+        }
+
+        /**
+         * Send the geometry of the current feature to the given visitor,
+         * without allocating.
+         *
+         * @param visitor the {@link GeometryVisitor} to call
+         * @param autoScale when true, scale to the 0..255 range. when false,
+         *            use the 0..extent-1 range as encoded.
+         * @throws IOException when the geometry is malformed
+         */
+        public void geometry(GeometryVisitor visitor, boolean autoScale) throws IOException {
+            feature().geometry(visitor, autoScale);
+        }
+
+    }
+
+    /**
+     * Read the name of the layer message at the given range, without looking
+     * at the rest of the layer.
+     */
+    static String layerName(ByteBuffer buffer, int offset, int length) throws IOException {
+        WireReader r = new WireReader(buffer);
+        r.reset(offset, offset + length);
+        while (r.hasRemaining()) {
+            int tag = r.readTag();
+            int wireType = WireReader.wireType(tag);
+            if (WireReader.fieldNumber(tag) == VectorTile.Tile.Layer.NAME_FIELD_NUMBER
+                    && wireType == WireReader.LENGTH_DELIMITED) {
+                int nameLength = r.readLength();
+                return r.string(r.position, nameLength);
+            }
+            r.skip(wireType);
+        }
+        return "";
+    }
+
+    static Object decodeValue(WireReader r, int valueOffset, int valueLength) throws IOException {
+        Object boolValue = null;
+        Object doubleValue = null;
+        Object floatValue = null;
+        Object intValue = null;
+        Object sintValue = null;
+        Object uintValue = null;
+        Object stringValue = null;
+
+        r.reset(valueOffset, valueOffset + valueLength);
+        while (r.hasRemaining()) {
+            int tag = r.readTag();
+            int wireType = WireReader.wireType(tag);
+            switch (WireReader.fieldNumber(tag)) {
+            case VectorTile.Tile.Value.STRING_VALUE_FIELD_NUMBER:
+                if (wireType == WireReader.LENGTH_DELIMITED) {
+                    int length = r.readLength();
+                    stringValue = r.string(r.position, length);
+                    r.position += length;
+                    continue;
+                }
+                break;
+            case VectorTile.Tile.Value.FLOAT_VALUE_FIELD_NUMBER:
+                if (wireType == WireReader.FIXED32) {
+                    floatValue = Float.valueOf(Float.intBitsToFloat(r.readFixed32()));
+                    continue;
+                }
+                break;
+            case VectorTile.Tile.Value.DOUBLE_VALUE_FIELD_NUMBER:
+                if (wireType == WireReader.FIXED64) {
+                    doubleValue = Double.valueOf(Double.longBitsToDouble(r.readFixed64()));
+                    continue;
+                }
+                break;
+            case VectorTile.Tile.Value.INT_VALUE_FIELD_NUMBER:
+                if (wireType == WireReader.VARINT) {
+                    intValue = Long.valueOf(r.readVarint64());
+                    continue;
+                }
+                break;
+            case VectorTile.Tile.Value.UINT_VALUE_FIELD_NUMBER:
+                if (wireType == WireReader.VARINT) {
+                    uintValue = Long.valueOf(r.readVarint64());
+                    continue;
+                }
+                break;
+            case VectorTile.Tile.Value.SINT_VALUE_FIELD_NUMBER:
+                if (wireType == WireReader.VARINT) {
+                    long n = r.readVarint64();
+                    sintValue = Long.valueOf((n >>> 1) ^ -(n & 1));
+                    continue;
+                }
+                break;
+            case VectorTile.Tile.Value.BOOL_VALUE_FIELD_NUMBER:
+                if (wireType == WireReader.VARINT) {
+                    boolValue = Boolean.valueOf(r.readVarint64() != 0);
+                    continue;
+                }
+                break;
+            default:
+                break;
+            }
+            r.skip(wireType);
+        }
+
+        // same precedence as VectorTileDecoder
+        if (boolValue != null) {
+            return boolValue;
+        } else if (doubleValue != null) {
+            return doubleValue;
+        } else if (floatValue != null) {
+            return floatValue;
+        } else if (intValue != null) {
+            return intValue;
+        } else if (sintValue != null) {
+            return sintValue;
+        } else if (uintValue != null) {
+            return uintValue;
+        }
+        return stringValue;
+    }
+
+    private static int[] grow(int[] array) {
+        return Arrays.copyOf(array, array.length * 2);
+    }
+
+}
@@ -18,34 +18,63 @@
  ****************************************************************/
 package no.ecc.vectortile;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
-
-import org.locationtech.jts.algorithm.Area;
-import org.locationtech.jts.geom.Coordinate;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFactory;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.LinearRing;
 import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+import com.google.protobuf.CodedInputStream;
 
 import vector_tile.VectorTile;
 import vector_tile.VectorTile.Tile.GeomType;
-import vector_tile.VectorTile.Tile.Layer;
 
 public class VectorTileDecoder {
 
     private boolean autoScale = true;
 
+    private boolean cacheGeometry = true;
+
+    private Envelope bounds;
+
+    private TagFilter tagFilter;
+
+    private Set<GeomType> geometryTypes;
+
+    private LongHashSet ids;
+
+    private StringPool stringPool;
+
+    private CoordinateSequenceFactory coordinateSequenceFactory = PackedCoordinateSequenceFactory.DOUBLE_FACTORY;
+
     /**
      * Get the autoScale setting.
      *
@@ -67,6 +96,187 @@ public class VectorTileDecoder {
         this.autoScale = autoScale;
     }
 
+    /**
+     * Get the cacheGeometry setting.
+     *
+     * @return cacheGeometry
+     */
+    public boolean isCacheGeometry() {
+        return cacheGeometry;
+    }
+
+    /**
+     * Set the cacheGeometry setting.
+     * <p>
+     * Geometries are decoded from the retained geometry commands the first
+     * time {@link Feature#getGeometry()} is called, so features that are only
+     * read for attributes or ids never create any JTS objects.
+     *
+     * @param cacheGeometry
+     *            when true, a decoded geometry is kept by the feature and
+     *            returned on later calls. when false, the geometry is decoded
+     *            on every call and nothing is kept, so it can be garbage
+     *            collected after use.
+     */
+    public void setCacheGeometry(boolean cacheGeometry) {
+        this.cacheGeometry = cacheGeometry;
+    }
+
+    /**
+     * Get the bounds setting.
+     *
+     * @return a copy of the bounds, or null when all features are decoded
+     */
+    public Envelope getBounds() {
+        return bounds == null ? null : new Envelope(bounds);
+    }
+
+    /**
+     * Set the bounds setting, to only decode features under a viewport or
+     * some other region of the tile. The layer {@link Filter} still applies.
+     * <p>
+     * The bounding box of each feature is found in a single integer pass over
+     * its geometry commands, and features with a bounding box that does not
+     * intersect the bounds are skipped without decoding their attributes or
+     * geometry. As only bounding boxes are compared, some features outside of
+     * the bounds may still be returned. Features without geometry are always
+     * skipped when bounds are set.
+     *
+     * @param bounds
+     *            the region to decode, in the same coordinate range as the
+     *            decoded geometries, so 0..255 when autoScale is true and
+     *            0..extent-1 when it is false. null to decode all features.
+     */
+    public void setBounds(Envelope bounds) {
+        this.bounds = bounds == null ? null : new Envelope(bounds);
+    }
+
+    /**
+     * Get the tagFilter setting.
+     *
+     * @return tagFilter, or null when features are not filtered on their
+     *         attributes
+     */
+    public TagFilter getTagFilter() {
+        return tagFilter;
+    }
+
+    /**
+     * Set the tagFilter setting, to only decode features with matching
+     * attributes. The layer {@link Filter} and the bounds still apply.
+     *
+     * @param tagFilter
+     *            a {@link TagFilter}, or null to decode features whatever
+     *            their attributes
+     */
+    public void setTagFilter(TagFilter tagFilter) {
+        this.tagFilter = tagFilter;
+    }
+
+    /**
+     * Get the geometryTypes setting.
+     *
+     * @return the geometry types to decode, or null when features of all
+     *         types are decoded
+     */
+    public Set<GeomType> getGeometryTypes() {
+        return geometryTypes == null ? null : Collections.unmodifiableSet(geometryTypes);
+    }
+
+    /**
+     * Set the geometryTypes setting, to only decode features of some geometry
+     * types. The type is checked before anything else of a feature is read.
+     *
+     * @param geometryTypes
+     *            the {@link GeomType}s to decode, or null to decode features
+     *            of all types
+     */
+    public void setGeometryTypes(Set<GeomType> geometryTypes) {
+        if (geometryTypes == null) {
+            this.geometryTypes = null;
+        } else {
+            this.geometryTypes = EnumSet.noneOf(GeomType.class);
+            this.geometryTypes.addAll(geometryTypes);
+        }
+    }
+
+    /**
+     * Get the ids setting.
+     *
+     * @return the feature ids to decode in ascending order, or null when
+     *         features are decoded whatever their id
+     */
+    public long[] getIds() {
+        return ids == null ? null : ids.toArray();
+    }
+
+    /**
+     * Set the ids setting, to only decode features with some ids. Features
+     * without an id are skipped when ids are set. The ids are kept in a
+     * primitive hash set, so checking a feature does not box its id.
+     *
+     * @param ids
+     *            the feature ids to decode, or null to decode features
+     *            whatever their id
+     */
+    public void setIds(long... ids) {
+        this.ids = ids == null ? null : new LongHashSet(ids);
+    }
+
+    /**
+     * Get the stringPool setting.
+     *
+     * @return stringPool, or null when no pool is used
+     */
+    public StringPool getStringPool() {
+        return stringPool;
+    }
+
+    /**
+     * Set the stringPool setting. Layer keys and string values are looked up
+     * in the pool by their raw UTF-8 bytes before a new {@link String} is
+     * created, so the same strings are shared across decoded tiles. The same
+     * pool can be set on several decoders.
+     *
+     * @param stringPool
+     *            a {@link StringPool}, or null to create new strings for every
+     *            decoded layer
+     */
+    public void setStringPool(StringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    /**
+     * Get the coordinateSequenceFactory setting.
+     *
+     * @return coordinateSequenceFactory
+     */
+    public CoordinateSequenceFactory getCoordinateSequenceFactory() {
+        return coordinateSequenceFactory;
+    }
+
+    /**
+     * Set the coordinateSequenceFactory setting. The default is
+     * {@link PackedCoordinateSequenceFactory#DOUBLE_FACTORY}, which keeps the
+     * coordinates of a geometry in a single double array instead of one
+     * {@link org.locationtech.jts.geom.Coordinate} object per vertex.
+     *
+     * @param coordinateSequenceFactory
+     *            the {@link CoordinateSequenceFactory} to create the decoded
+     *            geometries with
+     */
+    public void setCoordinateSequenceFactory(CoordinateSequenceFactory coordinateSequenceFactory) {
+        if (coordinateSequenceFactory == null) {
+            throw new NullPointerException("coordinateSequenceFactory");
+        }
+        this.coordinateSequenceFactory = coordinateSequenceFactory;
+    }
+
+    private Settings settings() {
+        return new Settings(autoScale, cacheGeometry, bounds, tagFilter, geometryTypes == null ? null
+                : EnumSet.copyOf(geometryTypes), ids, stringPool, coordinateSequenceFactory);
+    }
+
     public FeatureIterable decode(byte[] data) throws IOException {
         return decode(data, Filter.ALL);
     }
@@ -80,75 +290,160 @@ public class VectorTileDecoder {
     }
 
     public FeatureIterable decode(byte[] data, Filter filter) throws IOException {
-        VectorTile.Tile tile = VectorTile.Tile.parseFrom(data);
-        return new FeatureIterable(tile, filter, autoScale);
+        return decode(ByteBuffer.wrap(data), filter);
     }
 
-    static int zigZagDecode(int n) {
-        return ((n >> 1) ^ (-(n & 1)));
+    public FeatureIterable decode(Path path) throws IOException {
+        return decode(path, Filter.ALL);
     }
-    
-    static Geometry decodeGeometry(GeometryFactory gf, GeomType geomType, List<Integer> commands, double scale) {
-        int x = 0;
-        int y = 0;
 
-        List<List<Coordinate>> coordsList = new ArrayList<List<Coordinate>>();
-        List<Coordinate> coords = null;
+    /**
+     * Decode a tile file by memory mapping it. The file is not read onto the
+     * heap, only the included layers are parsed from the mapped bytes.
+     *
+     * @param path a {@link Path} to a file with a single encoded vector tile
+     * @param filter a {@link Filter} to select layers with
+     * @return a {@link FeatureIterable} with the features of the included layers
+     * @throws IOException when the file can not be read or the tile is malformed
+     */
+    public FeatureIterable decode(Path path, Filter filter) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return decode(channel, 0, channel.size(), filter);
+        }
+    }
 
-        int geometryCount = commands.size();
-        int length = 0;
-        int command = 0;
-        int i = 0;
-        while (i < geometryCount) {
+    public FeatureIterable decode(FileChannel channel, long offset, long length) throws IOException {
+        return decode(channel, offset, length, Filter.ALL);
+    }
 
-            if (length <= 0) {
-                length = commands.get(i++).intValue();
-                command = length & ((1 << 3) - 1);
-                length = length >> 3;
-            }
+    /**
+     * Decode a tile stored at the given region of a file, like a tile inside
+     * a larger archive, by memory mapping the region. The channel may be
+     * closed when this method returns.
+     *
+     * @param channel a {@link FileChannel} open for reading
+     * @param offset the position of the tile in the file
+     * @param length the size of the tile in bytes
+     * @param filter a {@link Filter} to select layers with
+     * @return a {@link FeatureIterable} with the features of the included layers
+     * @throws IOException when the region can not be mapped or the tile is malformed
+     */
+    public FeatureIterable decode(FileChannel channel, long offset, long length, Filter filter) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Tile of " + length + " bytes is too large to map");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        return decode(buffer, filter);
+    }
 
-            if (length > 0) {
+    /**
+     * Decode the layers of the tile between the position and the limit of the
+     * given buffer that are included by the given filter. Excluded layers are
+     * skipped at the wire level without being parsed.
+     *
+     * @param buffer a {@link ByteBuffer} with an encoded vector tile
+     * @param filter a {@link Filter} to select layers with
+     * @return a {@link FeatureIterable} with the features of the included layers
+     * @throws IOException when the tile is malformed
+     */
+    public FeatureIterable decode(ByteBuffer buffer, Filter filter) throws IOException {
+        List<String> layerNames = new ArrayList<String>();
+        List<VectorTile.Tile.Layer> layers = new ArrayList<VectorTile.Tile.Layer>();
+        VectorTileBuffer.LayerCursor layer = new VectorTileBuffer(buffer).layers();
+        while (layer.next()) {
+            String layerName = layer.name();
+            layerNames.add(layerName);
+            if (filter.include(layerName)) {
+                layers.add(VectorTile.Tile.Layer.parseFrom(WireReader.slice(buffer, layer.offset(), layer.length())));
+            }
+        }
+        return new FeatureIterable(layerNames, layers, settings());
+    }
 
-                if (command == Command.MoveTo) {
-                    coords = new ArrayList<Coordinate>();
-                    coordsList.add(coords);
-                }
+    public Iterator<Feature> decodeStream(InputStream in) {
+        return decodeStream(in, Filter.ALL);
+    }
 
-                if (command == Command.ClosePath) {
-                    if (geomType != VectorTile.Tile.GeomType.POINT && !coords.isEmpty()) {
-                        coords.add(new Coordinate(coords.get(0)));
-                    }
-                    length--;
-                    continue;
-                }
+    /**
+     * Decode a tile from a stream one layer at a time. Only the bytes and the
+     * parsed form of the current layer are kept in memory, so peak memory is
+     * bounded by the largest layer rather than the whole tile. Excluded layers
+     * are read past without being parsed.
+     * <p>
+     * The returned {@link Iterator} reads from the stream as it goes, can only
+     * be used once and throws {@link UncheckedIOException} when the stream
+     * can not be read or the tile is malformed. The stream is not closed.
+     *
+     * @param in an {@link InputStream} positioned at the start of a tile
+     * @param filter a {@link Filter} to select layers with
+     * @return an {@link Iterator} over the features of the included layers
+     */
+    public Iterator<Feature> decodeStream(InputStream in, Filter filter) {
+        return decode(new StreamingLayerIterator(in, filter));
+    }
 
-                int dx = commands.get(i++).intValue();
-                int dy = commands.get(i++).intValue();
+    /**
+     * @return an {@link Iterator} over the features of the given parsed
+     *         layers, that only references the current layer
+     */
+    Iterator<Feature> decode(Iterator<VectorTile.Tile.Layer> layers) {
+        return new FeatureIterator(layers, settings());
+    }
 
-                length--;
+    static int zigZagDecode(int n) {
+        return ((n >> 1) ^ (-(n & 1)));
+    }
+    
+    /**
+     * A {@link GeometryBuffer} per thread to decode geometry commands into
+     * before the JTS geometry is built, so only the final geometry is
+     * allocated.
+     */
+    private static final ThreadLocal<GeometryBuffer> SCRATCH = new ThreadLocal<GeometryBuffer>() {
 
-                dx = zigZagDecode(dx);
-                dy = zigZagDecode(dy);
+        @Override
+        protected GeometryBuffer initialValue() {
+            return new GeometryBuffer(1024);
+        }
 
-                x = x + dx;
-                y = y + dy;
+    };
 
-                Coordinate coord = new Coordinate(x / scale, y / scale);
-                coords.add(coord);
-            }
+    static GeometryBuffer scratch() {
+        return SCRATCH.get();
+    }
 
+    static Geometry decodeGeometry(GeometryFactory gf, GeomType geomType, List<Integer> commands, double scale) {
+        GeometryBuffer buffer = scratch();
+        int[] c = buffer.commands(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            c[i] = commands.get(i).intValue();
         }
+        return decodeGeometry(gf, buffer.decode(geomType, c, commands.size()), scale);
+    }
+
+    /**
+     * Build a JTS {@link Geometry} from a decoded {@link GeometryBuffer}. The
+     * coordinate sequences are created with the
+     * {@link CoordinateSequenceFactory} of the given {@link GeometryFactory}
+     * and filled directly from the integer coordinates.
+     */
+    static Geometry decodeGeometry(GeometryFactory gf, GeometryBuffer buffer, double scale) {
+        CoordinateSequenceFactory csf = gf.getCoordinateSequenceFactory();
+        int partCount = buffer.getPartCount();
 
         Geometry geometry = null;
 
-        switch (geomType) {
+        switch (buffer.getType()) {
         case LINESTRING:
-            List<LineString> lineStrings = new ArrayList<LineString>();
-            for (List<Coordinate> cs : coordsList) {
-                if (cs.size() <= 1) {
+            List<LineString> lineStrings = new ArrayList<LineString>(partCount);
+            for (int part = 0; part < partCount; part++) {
+                int start = buffer.getPartStart(part);
+                int end = buffer.getPartEnd(part);
+                boolean closed = buffer.isClosed(part) && end > start;
+                if (end - start + (closed ? 1 : 0) <= 1) {
                     continue;
                 }
-                lineStrings.add(gf.createLineString(cs.toArray(new Coordinate[cs.size()])));
+                lineStrings.add(gf.createLineString(sequence(csf, buffer, start, end, closed, scale)));
             }
             if (lineStrings.size() == 1) {
                 geometry = lineStrings.get(0);
@@ -157,31 +452,30 @@ public class VectorTileDecoder {
             }
             break;
         case POINT:
-            List<Coordinate> allCoords = new ArrayList<Coordinate>();
-            for (List<Coordinate> cs : coordsList) {
-                allCoords.addAll(cs);
-            }
-            if (allCoords.size() == 1) {
-                geometry = gf.createPoint(allCoords.get(0));
-            } else if (allCoords.size() > 1) {
-                geometry = gf.createMultiPointFromCoords(allCoords.toArray(new Coordinate[allCoords.size()]));
+            int vertexCount = buffer.getVertexCount();
+            if (vertexCount == 1) {
+                geometry = gf.createPoint(sequence(csf, buffer, 0, 1, false, scale));
+            } else if (vertexCount > 1) {
+                geometry = gf.createMultiPoint(sequence(csf, buffer, 0, vertexCount, false, scale));
             }
             break;
         case POLYGON:
             List<List<LinearRing>> polygonRings = new ArrayList<List<LinearRing>>();
             List<LinearRing> ringsForCurrentPolygon = null;
             Boolean ccw = null;
-            for (List<Coordinate> cs : coordsList) {
-                Coordinate[] ringCoords = cs.toArray(new Coordinate[cs.size()]);
-                double area = Area.ofRingSigned(ringCoords);
-                if (area == 0) {
+            for (int part = 0; part < partCount; part++) {
+                int start = buffer.getPartStart(part);
+                int end = buffer.getPartEnd(part);
+                long area2 = buffer.getTwiceSignedArea(part);
+                if (area2 == 0) {
+                    // also drops rings with less than three vertices
                     continue;
                 }
-                boolean thisCcw = area < 0;
+                boolean thisCcw = area2 > 0;
                 if (ccw == null) {
                     ccw = thisCcw;
                 }
-                LinearRing ring = gf.createLinearRing(ringCoords);
+                LinearRing ring = gf.createLinearRing(sequence(csf, buffer, start, end, true, scale));
                 if (ccw == thisCcw) {
                     if (ringsForCurrentPolygon != null) {
                         polygonRings.add(ringsForCurrentPolygon);
@@ -220,20 +514,292 @@ public class VectorTileDecoder {
         return geometry;
     }
 
+    /**
+     * Create a 2D {@link CoordinateSequence} for the given vertex range,
+     * repeating the first vertex at the end when closed.
+     */
+    private static CoordinateSequence sequence(CoordinateSequenceFactory csf, GeometryBuffer buffer, int start,
+            int end, boolean closed, double scale) {
+        int n = end - start;
+        CoordinateSequence sequence = csf.create(closed ? n + 1 : n, 2);
+        int[] coordinates = buffer.getCoordinates();
+        for (int i = 0; i < n; i++) {
+            int c = (start + i) * 2;
+            sequence.setOrdinate(i, CoordinateSequence.X, coordinates[c] / scale);
+            sequence.setOrdinate(i, CoordinateSequence.Y, coordinates[c + 1] / scale);
+        }
+        if (closed) {
+            sequence.setOrdinate(n, CoordinateSequence.X, sequence.getOrdinate(0, CoordinateSequence.X));
+            sequence.setOrdinate(n, CoordinateSequence.Y, sequence.getOrdinate(0, CoordinateSequence.Y));
+        }
+        return sequence;
+    }
+
+    /**
+     * Drive a {@link GeometryVisitor} directly from the raw geometry
+     * commands, without creating any objects. For polygons, the commands of
+     * each ring are walked twice: first to compute its exact signed area for
+     * the orientation hint, then to emit its vertices.
+     */
+    static void visitGeometry(GeomType geomType, int[] commands, int count, double scale,
+            GeometryVisitor visitor) {
+        GeomType type = geomType == null ? GeomType.UNKNOWN : geomType;
+        boolean polygon = type == GeomType.POLYGON;
+
+        visitor.begin(type);
+
+        int x = 0;
+        int y = 0;
+        int length = 0;
+        int command = 0;
+        int i = 0;
+        boolean inPart = false;
+        boolean skipPart = false;
+        while (i < count) {
+
+            if (length <= 0) {
+                length = commands[i++];
+                command = length & ((1 << 3) - 1);
+                length = length >> 3;
+            }
+
+            if (length > 0) {
+
+                if (command == Command.ClosePath) {
+                    if (inPart && !skipPart) {
+                        visitor.closePath();
+                    }
+                    length--;
+                    continue;
+                }
+
+                if (i + 1 >= count) {
+                    break;
+                }
+
+                x += zigZagDecode(commands[i++]);
+                y += zigZagDecode(commands[i++]);
+                length--;
+
+                if (command == Command.MoveTo) {
+                    inPart = true;
+                    if (polygon) {
+                        long area2 = ringArea(commands, i, count, length, x, y);
+                        // also drops rings with less than three vertices
+                        skipPart = area2 == 0;
+                        if (!skipPart) {
+                            visitor.ring(area2 > 0);
+                        }
+                    }
+                    if (!skipPart) {
+                        visitor.moveTo(x / scale, y / scale);
+                    }
+                } else if (command == Command.LineTo) {
+                    if (!inPart) {
+                        // LineTo without MoveTo
+                        break;
+                    }
+                    if (!skipPart) {
+                        visitor.lineTo(x / scale, y / scale);
+                    }
+                }
+            }
+
+        }
+
+        visitor.end();
+    }
+
+    /**
+     * Compute twice the signed area of the ring starting with the MoveTo to
+     * (x0, y0), reading the commands from index i until the next MoveTo.
+     */
+    private static long ringArea(int[] commands, int i, int count, int moveToLeft, int x0, int y0) {
+        if (moveToLeft > 0) {
+            // the next vertex is another MoveTo
+            return 0;
+        }
+        long area2 = 0;
+        int x = x0;
+        int y = y0;
+        int length = 0;
+        int command = 0;
+        while (i < count) {
+            if (length <= 0) {
+                command = commands[i] & ((1 << 3) - 1);
+                if (command == Command.MoveTo) {
+                    break;
+                }
+                length = commands[i++] >> 3;
+                continue;
+            }
+            if (command == Command.ClosePath) {
+                length--;
+                continue;
+            }
+            if (i + 1 >= count) {
+                break;
+            }
+            int nx = x + zigZagDecode(commands[i++]);
+            int ny = y + zigZagDecode(commands[i++]);
+            length--;
+            area2 += (long) x * ny - (long) nx * y;
+            x = nx;
+            y = ny;
+        }
+        return area2 + (long) x * y0 - (long) x0 * y;
+    }
+
+    /**
+     * Check if the bounding box of the geometry of a feature intersects the
+     * given bounds in unscaled tile coordinates, without decoding the
+     * geometry.
+     */
+    static boolean intersects(VectorTile.Tile.Feature feature, double minX, double minY, double maxX,
+            double maxY) {
+        int fminX = Integer.MAX_VALUE;
+        int fminY = Integer.MAX_VALUE;
+        int fmaxX = Integer.MIN_VALUE;
+        int fmaxY = Integer.MIN_VALUE;
+
+        int x = 0;
+        int y = 0;
+        int count = feature.getGeometryCount();
+        int length = 0;
+        int command = 0;
+        int i = 0;
+        while (i < count) {
+            if (length <= 0) {
+                length = feature.getGeometry(i++);
+                command = length & ((1 << 3) - 1);
+                length = length >> 3;
+            }
+            if (length > 0) {
+                length--;
+                if (command == Command.ClosePath) {
+                    continue;
+                }
+                if (i + 1 >= count) {
+                    break;
+                }
+                x += zigZagDecode(feature.getGeometry(i++));
+                y += zigZagDecode(feature.getGeometry(i++));
+                fminX = Math.min(fminX, x);
+                fminY = Math.min(fminY, y);
+                fmaxX = Math.max(fmaxX, x);
+                fmaxY = Math.max(fmaxY, y);
+            }
+        }
+
+        if (fminX > fmaxX) {
+            // no geometry
+            return false;
+        }
+        return fminX <= maxX && fmaxX >= minX && fminY <= maxY && fmaxY >= minY;
+    }
+
+    /**
+     * A snapshot of the decoder settings, taken when a tile is decoded.
+     */
+    static final class Settings {
+
+        final boolean autoScale;
+
+        final boolean cacheGeometry;
+
+        final Envelope bounds;
+
+        final TagFilter tagFilter;
+
+        final Set<GeomType> geometryTypes;
+
+        final LongHashSet ids;
+
+        final StringPool stringPool;
+
+        final CoordinateSequenceFactory coordinateSequenceFactory;
+
+        Settings(boolean autoScale, boolean cacheGeometry, Envelope bounds, TagFilter tagFilter,
+                Set<GeomType> geometryTypes, LongHashSet ids, StringPool stringPool,
+                CoordinateSequenceFactory coordinateSequenceFactory) {
+            this.autoScale = autoScale;
+            this.cacheGeometry = cacheGeometry;
+            this.bounds = bounds;
+            this.tagFilter = tagFilter;
+            this.geometryTypes = geometryTypes;
+            this.ids = ids;
+            this.stringPool = stringPool;
+            this.coordinateSequenceFactory = coordinateSequenceFactory;
+        }
+
+        GeometryFactory geometryFactory() {
+            return new GeometryFactory(coordinateSequenceFactory);
+        }
+
+        /**
+         * @return true when some features may be skipped while decoding
+         */
+        boolean hasFeatureFilters() {
+            return bounds != null || tagFilter != null || geometryTypes != null || ids != null;
+        }
+
+    }
+
     public static final class FeatureIterable implements Iterable<Feature> {
 
-        private final VectorTile.Tile tile;
-        private final Filter filter;
-        private boolean autoScale;
+        private final List<String> layerNames;
+        private final List<VectorTile.Tile.Layer> layers;
+        private final Settings settings;
+
+        // built on first use and then shared by all callers
+        private volatile Collection<String> layerNameSet;
 
         public FeatureIterable(VectorTile.Tile tile, Filter filter, boolean autoScale) {
-            this.tile = tile;
-            this.filter = filter;
-            this.autoScale = autoScale;
+            this.layerNames = new ArrayList<String>();
+            this.layers = new ArrayList<VectorTile.Tile.Layer>();
+            for (VectorTile.Tile.Layer layer : tile.getLayersList()) {
+                layerNames.add(layer.getName());
+                if (filter.include(layer.getName())) {
+                    layers.add(layer);
+                }
+            }
+            this.settings = new Settings(autoScale, true, null, null, null, null, null,
+                    PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+        }
+
+        FeatureIterable(List<String> layerNames, List<VectorTile.Tile.Layer> layers, Settings settings) {
+            this.layerNames = layerNames;
+            this.layers = layers;
+            this.settings = settings;
         }
 
         public Iterator<Feature> iterator() {
-            return new FeatureIterator(tile, filter, autoScale);
+            return new FeatureIterator(layers.iterator(), settings);
+        }
+
+        /**
+         * Get a {@link Spliterator} that splits at layer boundaries and then
+         * at feature ranges within a layer, so a single tile can be decoded by
+         * several threads.
+         */
+        @Override
+        public Spliterator<Feature> spliterator() {
+            return FeatureSpliterator.of(layers, settings);
+        }
+
+        /**
+         * @return a sequential {@link Stream} of the features
+         */
+        public Stream<Feature> stream() {
+            return StreamSupport.stream(spliterator(), false);
+        }
+
+        /**
+         * @return a parallel {@link Stream} of the features. The order of the
+         *         features is kept for ordered terminal operations.
+         */
+        public Stream<Feature> parallelStream() {
+            return StreamSupport.stream(spliterator(), true);
         }
 
         public List<Feature> asList() {
@@ -244,40 +810,248 @@ public class VectorTileDecoder {
             return features;
         }
 
+        /**
+         * @return the distinct names of all layers in the tile, including the
+         *         ones that were not decoded
+         */
         public Collection<String> getLayerNames() {
-            Set<String> layerNames = new HashSet<String>();
-            for (VectorTile.Tile.Layer layer : tile.getLayersList()) {
-                layerNames.add(layer.getName());
+            Collection<String> names = layerNameSet;
+            if (names == null) {
+                names = Collections.unmodifiableSet(new HashSet<String>(layerNames));
+                layerNameSet = names;
             }
-            return Collections.unmodifiableSet(layerNames);
+            return names;
         }
 
     }
 
-    private static final class FeatureIterator implements Iterator<Feature> {
+    /**
+     * Reads the layers of a tile from a stream into a buffer that is reused
+     * and grown to the size of the largest layer.
+     */
+    private static final class StreamingLayerIterator implements Iterator<VectorTile.Tile.Layer> {
 
-        private final GeometryFactory gf = new GeometryFactory();
+        private final InputStream in;
 
         private final Filter filter;
 
+        private byte[] bytes = new byte[8192];
+
+        private VectorTile.Tile.Layer next;
+
+        private boolean done;
+
+        StreamingLayerIterator(InputStream in, Filter filter) {
+            this.in = in;
+            this.filter = filter;
+        }
+
+        public boolean hasNext() {
+            if (next == null && !done) {
+                try {
+                    next = readNext();
+                } catch (IOException e) {
+                    done = true;
+                    throw new UncheckedIOException(e);
+                }
+                done = next == null;
+            }
+            return next != null;
+        }
+
+        public VectorTile.Tile.Layer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            VectorTile.Tile.Layer n = next;
+            next = null;
+            return n;
+        }
+
+        private VectorTile.Tile.Layer readNext() throws IOException {
+            while (true) {
+                int first = in.read();
+                if (first < 0) {
+                    return null;
+                }
+                int tag = (int) readVarint(first);
+                int wireType = WireReader.wireType(tag);
+                if (wireType == WireReader.VARINT) {
+                    readVarint(read());
+                    continue;
+                }
+                if (wireType == WireReader.FIXED64 || wireType == WireReader.FIXED32) {
+                    skip(wireType == WireReader.FIXED64 ? 8 : 4);
+                    continue;
+                }
+                if (wireType != WireReader.LENGTH_DELIMITED) {
+                    throw new IOException("Unsupported wire type " + wireType);
+                }
+                long length = readVarint(read());
+                if (length < 0 || length > Integer.MAX_VALUE) {
+                    throw new IOException("Invalid length " + length);
+                }
+                if (WireReader.fieldNumber(tag) != VectorTile.Tile.LAYERS_FIELD_NUMBER) {
+                    skip(length);
+                    continue;
+                }
+
+                int layerLength = (int) length;
+                if (bytes.length < layerLength) {
+                    bytes = new byte[Math.max(layerLength, bytes.length * 2)];
+                }
+                readFully(bytes, layerLength);
+
+                if (!filter.include(VectorTileBuffer.layerName(ByteBuffer.wrap(bytes), 0, layerLength))) {
+                    continue;
+                }
+                return VectorTile.Tile.Layer.parseFrom(CodedInputStream.newInstance(bytes, 0, layerLength));
+            }
+        }
+
+        private int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated vector tile");
+            }
+            return b;
+        }
+
+        private long readVarint(int first) throws IOException {
+            long result = first & 0x7F;
+            int b = first;
+            for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+                if (shift >= 64) {
+                    throw new IOException("Malformed varint");
+                }
+                b = read();
+                result |= (long) (b & 0x7F) << shift;
+            }
+            return result;
+        }
+
+        private void readFully(byte[] into, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                int n = in.read(into, offset, length - offset);
+                if (n < 0) {
+                    throw new EOFException("Truncated vector tile");
+                }
+                offset += n;
+            }
+        }
+
+        private void skip(long length) throws IOException {
+            while (length > 0) {
+                long n = in.skip(length);
+                if (n <= 0) {
+                    read();
+                    n = 1;
+                }
+                length -= n;
+            }
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+    /**
+     * The state for decoding the features of a single layer: the shared key
+     * and value tables, the scale and the feature filters resolved for the
+     * layer.
+     */
+    private static final class LayerDecoder {
+
+        private final GeometryFactory gf;
+
+        private final Settings settings;
+
+        private final int extent;
+        private final String layerName;
+        private final double scale;
+
+        private final LayerTables tables;
+
+        private final TagFilter.Matcher tagMatcher;
+
+        // the bounds in unscaled tile coordinates of the layer
+        private double minX;
+        private double minY;
+        private double maxX;
+        private double maxY;
+
+        LayerDecoder(VectorTile.Tile.Layer layer, Settings settings, GeometryFactory gf) {
+            this.gf = gf;
+            this.settings = settings;
+
+            layerName = layer.getName();
+            extent = layer.getExtent();
+            scale = settings.autoScale ? extent / 256.0 : 1.0;
+
+            if (settings.bounds != null) {
+                minX = settings.bounds.getMinX() * scale;
+                minY = settings.bounds.getMinY() * scale;
+                maxX = settings.bounds.getMaxX() * scale;
+                maxY = settings.bounds.getMaxY() * scale;
+            }
+
+            // a new table per layer, as it is shared with the features of the layer
+            tables = new LayerTables(layer, settings.stringPool);
+
+            tagMatcher = settings.tagFilter == null ? null : settings.tagFilter.bind(tables);
+        }
+
+        /**
+         * @return true when no feature in this layer can match the filters
+         */
+        boolean isEmpty() {
+            return tagMatcher == TagFilter.NONE;
+        }
+
+        /**
+         * @return the decoded feature, or null when it does not match the
+         *         filters
+         */
+        Feature decode(VectorTile.Tile.Feature feature) {
+            if (settings.geometryTypes != null && !settings.geometryTypes.contains(feature.getType())) {
+                return null;
+            }
+            if (settings.ids != null && !(feature.hasId() && settings.ids.contains(feature.getId()))) {
+                return null;
+            }
+            if (tagMatcher != null && !tagMatcher.matches(feature)) {
+                return null;
+            }
+            if (settings.bounds != null && !intersects(feature, minX, minY, maxX, maxY)) {
+                return null;
+            }
+            return new Feature(layerName, extent, gf, feature, scale, settings.cacheGeometry,
+                    new AttributeView(tables, feature));
+        }
+
+    }
+
+    private static final class FeatureIterator implements Iterator<Feature> {
+
+        private final GeometryFactory gf;
+
         private final Iterator<VectorTile.Tile.Layer> layerIterator;
 
         private Iterator<VectorTile.Tile.Feature> featureIterator;
 
-        private int extent;
-        private String layerName;
-        private double scale;
-        private boolean autoScale;
+        private final Settings settings;
 
-        private final List<String> keys = new ArrayList<String>();
-        private final List<Object> values = new ArrayList<Object>();
+        private LayerDecoder layerDecoder;
 
         private Feature next;
 
-        public FeatureIterator(VectorTile.Tile tile, Filter filter, boolean autoScale) {
-            layerIterator = tile.getLayersList().iterator();
-            this.filter = filter;
-            this.autoScale = autoScale;
+        public FeatureIterator(Iterator<VectorTile.Tile.Layer> layerIterator, Settings settings) {
+            this.layerIterator = layerIterator;
+            this.settings = settings;
+            this.gf = settings.geometryFactory();
         }
 
         public boolean hasNext() {
@@ -304,82 +1078,158 @@ public class VectorTileDecoder {
             while (true) {
 
                 if (featureIterator == null || !featureIterator.hasNext()) {
+                    // let the previous layer be collected before the next
+                    // one is read, so only one layer is live at a time
+                    layerDecoder = null;
+                    featureIterator = null;
                     if (!layerIterator.hasNext()) {
                         next = null;
                         break;
                     }
 
-                    Layer layer = layerIterator.next();
-                    if (!filter.include(layer.getName())) {
-                        continue;
-                    }
-
-                    parseLayer(layer);
+                    parseLayer(layerIterator.next());
                     continue;
                 }
 
-                next = parseFeature(featureIterator.next());
-                break;
+                next = layerDecoder.decode(featureIterator.next());
+                if (next != null) {
+                    break;
+                }
 
             }
 
         }
 
         private void parseLayer(VectorTile.Tile.Layer layer) {
+            layerDecoder = new LayerDecoder(layer, settings, gf);
+            if (layerDecoder.isEmpty()) {
+                // no feature in this layer can match
+                featureIterator = Collections.<VectorTile.Tile.Feature> emptyList().iterator();
+                return;
+            }
+            featureIterator = layer.getFeaturesList().iterator();
+        }
 
-            layerName = layer.getName();
-            extent = layer.getExtent();
-            scale = autoScale ? extent / 256.0 : 1.0;
-
-            keys.clear();
-            keys.addAll(layer.getKeysList());
-            values.clear();
-
-            for (VectorTile.Tile.Value value : layer.getValuesList()) {
-                if (value.hasBoolValue()) {
-                    values.add(value.getBoolValue());
-                } else if (value.hasDoubleValue()) {
-                    values.add(value.getDoubleValue());
-                } else if (value.hasFloatValue()) {
-                    values.add(value.getFloatValue());
-                } else if (value.hasIntValue()) {
-                    values.add(value.getIntValue());
-                } else if (value.hasSintValue()) {
-                    values.add(value.getSintValue());
-                } else if (value.hasUintValue()) {
-                    values.add(value.getUintValue());
-                } else if (value.hasStringValue()) {
-                    values.add(value.getStringValue());
-                } else {
-                    values.add(null);
-                }
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
 
-            }
+    }
 
-            featureIterator = layer.getFeaturesList().iterator();
+    /**
+     * A {@link Spliterator} over the features of a list of parsed layers. It
+     * covers the features from a start position to an end position, both
+     * given as a layer and a feature index, and splits at layer boundaries
+     * first and then at the middle of the feature range of a single layer.
+     * Each split decodes with its own layer tables and
+     * {@link GeometryFactory}.
+     */
+    private static final class FeatureSpliterator implements Spliterator<Feature> {
+
+        // do not split a single layer into smaller ranges than this
+        private static final int MIN_SPLIT_FEATURES = 64;
+
+        private final List<VectorTile.Tile.Layer> layers;
+
+        private final Settings settings;
+
+        private int layer;
+        private int feature;
+
+        // the last layer, and the feature index after the last feature
+        private final int endLayer;
+        private final int endFeature;
+
+        private GeometryFactory gf;
+
+        private LayerDecoder layerDecoder;
+        private int layerDecoderIndex = -1;
+
+        FeatureSpliterator(List<VectorTile.Tile.Layer> layers, Settings settings, int layer, int feature,
+                int endLayer, int endFeature) {
+            this.layers = layers;
+            this.settings = settings;
+            this.layer = layer;
+            this.feature = feature;
+            this.endLayer = endLayer;
+            this.endFeature = endFeature;
+        }
+
+        static FeatureSpliterator of(List<VectorTile.Tile.Layer> layers, Settings settings) {
+            int endLayer = layers.size() - 1;
+            int endFeature = endLayer < 0 ? 0 : layers.get(endLayer).getFeaturesCount();
+            return new FeatureSpliterator(layers, settings, 0, 0, endLayer, endFeature);
         }
 
-        private Feature parseFeature(VectorTile.Tile.Feature feature) {
+        private int end(int layerIndex) {
+            return layerIndex == endLayer ? endFeature : layers.get(layerIndex).getFeaturesCount();
+        }
+
+        public boolean tryAdvance(Consumer<? super Feature> action) {
+            while (layer <= endLayer) {
+                if (feature >= end(layer)) {
+                    layer++;
+                    feature = 0;
+                    layerDecoder = null;
+                    layerDecoderIndex = -1;
+                    continue;
+                }
+
+                VectorTile.Tile.Layer l = layers.get(layer);
+                if (layerDecoderIndex != layer) {
+                    if (gf == null) {
+                        gf = settings.geometryFactory();
+                    }
+                    layerDecoder = new LayerDecoder(l, settings, gf);
+                    layerDecoderIndex = layer;
+                }
+                if (layerDecoder.isEmpty()) {
+                    // no feature in this layer can match
+                    feature = end(layer);
+                    continue;
+                }
 
-            int tagsCount = feature.getTagsCount();
-            Map<String, Object> attributes = new HashMap<String, Object>(tagsCount / 2);
-            int tagIdx = 0;
-            while (tagIdx < feature.getTagsCount()) {
-                String key = keys.get(feature.getTags(tagIdx++));
-                Object value = values.get(feature.getTags(tagIdx++));
-                attributes.put(key, value);
+                Feature f = layerDecoder.decode(l.getFeatures(feature++));
+                if (f != null) {
+                    action.accept(f);
+                    return true;
+                }
             }
+            return false;
+        }
 
-            Geometry geometry = decodeGeometry(gf, feature.getType(), feature.getGeometryList(), scale);
-            if (geometry == null) {
-                geometry = gf.createGeometryCollection(new Geometry[0]);
+        public Spliterator<Feature> trySplit() {
+            if (layer < endLayer) {
+                int mid = layer + (endLayer - layer + 1) / 2;
+                FeatureSpliterator prefix = new FeatureSpliterator(layers, settings, layer, feature, mid - 1,
+                        layers.get(mid - 1).getFeaturesCount());
+                layer = mid;
+                feature = 0;
+                return prefix;
+            }
+            if (layer == endLayer && endFeature - feature >= MIN_SPLIT_FEATURES * 2) {
+                int mid = feature + (endFeature - feature) / 2;
+                FeatureSpliterator prefix = new FeatureSpliterator(layers, settings, layer, feature, layer, mid);
+                feature = mid;
+                return prefix;
             }
+            return null;
+        }
 
-            return new Feature(layerName, extent, geometry, Collections.unmodifiableMap(attributes), feature.getId());
+        public long estimateSize() {
+            long size = 0;
+            for (int i = layer; i <= endLayer; i++) {
+                size += end(i) - (i == layer ? feature : 0);
+            }
+            return size;
         }
 
-        public void remove() {
-            throw new UnsupportedOperationException();
+        public int characteristics() {
+            int characteristics = ORDERED | NONNULL | IMMUTABLE;
+            if (!settings.hasFeatureFilters()) {
+                characteristics |= SIZED | SUBSIZED;
+            }
+            return characteristics;
         }
 
     }
@@ -389,15 +1239,37 @@ public class VectorTileDecoder {
         private final String layerName;
         private final int extent;
         private final long id;
-        private final Geometry geometry;
+        private Geometry geometry;
         private final Map<String, Object> attributes;
 
+        // for decoding the geometry on first access
+        private final GeometryFactory gf;
+        private final VectorTile.Tile.Feature source;
+        private final double scale;
+        private final boolean cacheGeometry;
+
         public Feature(String layerName, int extent, Geometry geometry, Map<String, Object> attributes, long id) {
             this.layerName = layerName;
             this.extent = extent;
             this.geometry = geometry;
             this.attributes = attributes;
             this.id = id;
+            this.gf = null;
+            this.source = null;
+            this.scale = 1.0;
+            this.cacheGeometry = true;
+        }
+
+        Feature(String layerName, int extent, GeometryFactory gf, VectorTile.Tile.Feature source, double scale,
+                boolean cacheGeometry, Map<String, Object> attributes) {
+            this.layerName = layerName;
+            this.extent = extent;
+            this.attributes = attributes;
+            this.id = source.getId();
+            this.gf = gf;
+            this.source = source;
+            this.scale = scale;
+            this.cacheGeometry = cacheGeometry;
         }
 
         public String getLayerName() {
@@ -412,14 +1284,167 @@ public class VectorTileDecoder {
             return extent;
         }
 
+        /**
+         * Get the geometry of this feature. For decoded features, the
+         * geometry is decoded on the first call.
+         *
+         * @return a {@link Geometry}, which is empty when the feature has no
+         *         geometry
+         */
         public Geometry getGeometry() {
-            return geometry;
+            if (geometry != null || source == null) {
+                return geometry;
+            }
+            Geometry decoded = decodeGeometry(gf, getGeometry(scratch()), scale);
+            if (cacheGeometry) {
+                geometry = decoded;
+            }
+            return decoded;
+        }
+
+        boolean isGeometryDecoded() {
+            return geometry != null;
+        }
+
+        /**
+         * @return the geometry type as encoded in the tile, or
+         *         {@link GeomType#UNKNOWN} for features that were not decoded
+         *         from a tile
+         */
+        public GeomType getGeometryType() {
+            return source == null ? GeomType.UNKNOWN : source.getType();
+        }
+
+        /**
+         * Get a copy of the raw, still zigzag encoded, geometry command
+         * integers of this feature.
+         *
+         * @return the geometry commands
+         * @throws IllegalStateException for features that were not decoded
+         *             from a tile
+         */
+        public int[] getGeometryCommands() {
+            checkSource();
+            int count = source.getGeometryCount();
+            int[] commands = new int[count];
+            for (int i = 0; i < count; i++) {
+                commands[i] = source.getGeometry(i);
+            }
+            return commands;
+        }
+
+        /**
+         * Decode the geometry of this feature as integer tile coordinates into
+         * the given buffer, without creating any JTS objects. The coordinates
+         * are never scaled, whatever {@link VectorTileDecoder#isAutoScale()}
+         * was set to.
+         *
+         * @param buffer the {@link GeometryBuffer} to fill, or null to create
+         *            a new one
+         * @return the filled buffer
+         * @throws IllegalStateException for features that were not decoded
+         *             from a tile
+         */
+        public GeometryBuffer getGeometry(GeometryBuffer buffer) {
+            checkSource();
+            if (buffer == null) {
+                buffer = new GeometryBuffer();
+            }
+            int count = source.getGeometryCount();
+            int[] commands = buffer.commands(count);
+            for (int i = 0; i < count; i++) {
+                commands[i] = source.getGeometry(i);
+            }
+            return buffer.decode(source.getType(), commands, count);
+        }
+
+        /**
+         * Send the geometry of this feature to the given visitor, without
+         * creating any geometry objects. The coordinates are scaled the same
+         * way as for {@link #getGeometry()}. For a path without any
+         * allocation, see
+         * {@link VectorTileBuffer.TileCursor#geometry(GeometryVisitor, boolean)}.
+         *
+         * @param visitor the {@link GeometryVisitor} to call
+         * @throws IllegalStateException for features that were not decoded
+         *             from a tile
+         */
+        public void visitGeometry(GeometryVisitor visitor) {
+            int[] commands = getGeometryCommands();
+            VectorTileDecoder.visitGeometry(source.getType(), commands, commands.length, scale, visitor);
         }
 
+        private void checkSource() {
+            if (source == null) {
+                throw new IllegalStateException("feature was not decoded from a tile");
+            }
+        }
+
+        /**
+         * Get the attributes of this feature. For decoded features this is a
+         * read-only view backed by the tags of the feature and the key/value
+         * tables of the layer.
+         *
+         * @return a read-only {@link Map} with the attributes
+         */
         public Map<String, Object> getAttributes() {
             return attributes;
         }
 
+        /**
+         * Get a numeric attribute as a long without boxing it, for decoded
+         * features. Floating point values are truncated.
+         *
+         * @param key the attribute name
+         * @param defaultValue the value to return when the attribute is
+         *            missing or is not a number
+         * @return the attribute value as a long
+         */
+        public long getLong(String key, long defaultValue) {
+            if (attributes instanceof AttributeView) {
+                AttributeView view = (AttributeView) attributes;
+                int valueIndex = view.valueIndex(key);
+                if (valueIndex < 0 || !view.tables().isNumber(valueIndex)) {
+                    return defaultValue;
+                }
+                return view.tables().longs[valueIndex];
+            }
+            Object value = attributes.get(key);
+            return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+        }
+
+        /**
+         * Get a numeric attribute as a double without boxing it, for decoded
+         * features.
+         *
+         * @param key the attribute name
+         * @param defaultValue the value to return when the attribute is
+         *            missing or is not a number
+         * @return the attribute value as a double
+         */
+        public double getDouble(String key, double defaultValue) {
+            if (attributes instanceof AttributeView) {
+                AttributeView view = (AttributeView) attributes;
+                int valueIndex = view.valueIndex(key);
+                if (valueIndex < 0 || !view.tables().isNumber(valueIndex)) {
+                    return defaultValue;
+                }
+                return view.tables().doubles[valueIndex];
+            }
+            Object value = attributes.get(key);
+            return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+        }
+
+        /**
+         * @param key the attribute name
+         * @return the attribute value when it is a {@link String}, otherwise
+         *         null
+         */
+        public String getString(String key) {
+            Object value = attributes.get(key);
+            return value instanceof String ? (String) value : null;
+        }
+
     }
 
 }
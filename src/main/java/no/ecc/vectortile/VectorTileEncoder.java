@@ -20,19 +20,19 @@ package no.ecc.vectortile;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.locationtech.jts.algorithm.Area;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryCollection;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
-import org.locationtech.jts.geom.LinearRing;
 import org.locationtech.jts.geom.MultiLineString;
 import org.locationtech.jts.geom.MultiPoint;
 import org.locationtech.jts.geom.MultiPolygon;
@@ -75,6 +75,12 @@ public class VectorTileEncoder {
     
     private final GeometryFactory gf = new GeometryFactory();
 
+    private boolean spatialOrdering = false;
+
+    private GeometryCommandEncoder commandEncoder;
+
+    private EncoderStats stats;
+
     /**
      * Create a {@link VectorTileEncoder} with the default extent of 4096 and
      * clip buffer of 8.
@@ -142,6 +148,62 @@ public class VectorTileEncoder {
         clipGeometry = createTileEnvelope(clipBuffer, size);
         clipEnvelope = clipGeometry.getEnvelopeInternal();
         clipGeometryPrepared = PreparedGeometryFactory.prepare(clipGeometry);
+        commandEncoder = new GeometryCommandEncoder(autoScale ? (extent / 256.0) : 1.0, spatialOrdering);
+    }
+
+    /**
+     * Get the spatialOrdering setting.
+     *
+     * @return spatialOrdering
+     */
+    public boolean isSpatialOrdering() {
+        return spatialOrdering;
+    }
+
+    /**
+     * Set the spatialOrdering setting.
+     * <p>
+     * When enabled, the features of each layer are written along a Hilbert
+     * curve of their envelope centers instead of in insertion order, and
+     * closed rings are rotated to start at the vertex nearest the current
+     * cursor. This keeps MoveTo deltas small and makes neighbouring features
+     * look alike to gzip, at the cost of losing the feature order.
+     *
+     * @param spatialOrdering
+     *            when true, features are sorted spatially and rings rotated.
+     *            when false, features are encoded in the order they were added.
+     */
+    public void setSpatialOrdering(boolean spatialOrdering) {
+        this.spatialOrdering = spatialOrdering;
+        this.commandEncoder = new GeometryCommandEncoder(autoScale ? (extent / 256.0) : 1.0, spatialOrdering);
+    }
+
+    /**
+     * Get the {@link EncoderStats} that this encoder reports to.
+     *
+     * @return stats, or null when not collecting statistics
+     */
+    public EncoderStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Set an {@link EncoderStats} to collect feature counts, vertex counts,
+     * timings and layer sizes in. Set to null, the default, to not collect
+     * anything.
+     * <p>
+     * Features are counted when they are added, or by the first
+     * {@link #encode()} after they are added for what is only known once
+     * they are encoded, like accepted features, vertices after rounding and
+     * layer sizes. To do so, the encoder remembers which features and how
+     * much of each layer it has counted, so encoding the same features
+     * again only adds to the timings.
+     *
+     * @param stats
+     *            a {@link EncoderStats} or null
+     */
+    public void setStats(EncoderStats stats) {
+        this.stats = stats;
     }
 
     private static Geometry createTileEnvelope(int buffer, int size) {
@@ -174,13 +236,7 @@ public class VectorTileEncoder {
     public void addFeature(String layerName, Map<String, ?> attributes, Geometry geometry, long id) {
 
         // skip small Polygon/LineString.
-        if (geometry instanceof MultiPolygon && geometry.getArea() < minimumArea) {
-            return;
-        }
-        if (geometry instanceof Polygon && geometry.getArea() < minimumArea) {
-            return;
-        }
-        if (geometry instanceof LineString && geometry.getLength() < minimumLength) {
+        if (isTooSmall(geometry)) {
             return;
         }
 
@@ -197,6 +253,9 @@ public class VectorTileEncoder {
         // About to simplify and clip. Looks like simplification before clipping is
         // faster than clipping before simplification
         
+        long start = stats != null ? System.nanoTime() : 0L;
+        int verticesBefore = stats != null ? geometry.getNumPoints() : 0;
+
         // simplify non-points
         if (simplificationDistanceTolerance > 0.0 && !(geometry instanceof Point)) {
             if (geometry instanceof LineString || geometry instanceof MultiLineString) {
@@ -213,28 +272,84 @@ public class VectorTileEncoder {
                 geometry = TopologyPreservingSimplifier.simplify(geometry, simplificationDistanceTolerance);
             }
         }
+
+        int verticesAfterSimplify = 0;
+        if (stats != null) {
+            long now = System.nanoTime();
+            stats.simplified(now - start);
+            verticesAfterSimplify = geometry.getNumPoints();
+            start = now;
+        }
         
         // clip geometry
         if (geometry instanceof Point) {
             if (!clipCovers(geometry)) {
+                if (stats != null) {
+                    stats.clipped(System.nanoTime() - start);
+                    stats.vertices(verticesBefore, verticesAfterSimplify, 0);
+                    stats.drop(EncoderStats.DropReason.EMPTY_CLIP);
+                }
                 return;
             }
         } else {
             geometry = clipGeometry(geometry);
         }
 
+        if (stats != null) {
+            stats.clipped(System.nanoTime() - start);
+        }
+
         // no need to add empty geometry
         if (geometry == null || geometry.isEmpty()) {
+            if (stats != null) {
+                stats.vertices(verticesBefore, verticesAfterSimplify, 0);
+                stats.drop(EncoderStats.DropReason.EMPTY_CLIP);
+            }
             return;
         }
 
+        if (stats != null) {
+            stats.vertices(verticesBefore, verticesAfterSimplify, geometry.getNumPoints());
+        }
+
+        addClipped(layerName, attributes, geometry, id);
+    }
+
+    /**
+     * @return true, after counting the drop, when the geometry is a polygon
+     *         with a too small area or a line with a too short length
+     */
+    private boolean isTooSmall(Geometry geometry) {
+        if ((geometry instanceof Polygon || geometry instanceof MultiPolygon) && geometry.getArea() < minimumArea) {
+            if (stats != null) {
+                stats.drop(EncoderStats.DropReason.SMALL_AREA);
+            }
+            return true;
+        }
+        if (geometry instanceof LineString && geometry.getLength() < minimumLength) {
+            if (stats != null) {
+                stats.drop(EncoderStats.DropReason.SHORT_LENGTH);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add a feature with a geometry that is already simplified and clipped.
+     */
+    private void addClipped(String layerName, Map<String, ?> attributes, Geometry geometry, long id) {
+
         // extra check for GeometryCollection after clipping as it can cause
-        // GeometryCollection. Subclasses not handled here.
+        // GeometryCollection. Subclasses not handled here. The parts are
+        // already simplified and clipped, and their vertices counted.
         if (geometry.getClass().equals(GeometryCollection.class)) {
             for (int i = 0; i < geometry.getNumGeometries(); i++) {
                 Geometry subGeometry = geometry.getGeometryN(i);
-                // keeping the id. any better suggestion?
-                addFeature(layerName, attributes, subGeometry, id);
+                if (!isTooSmall(subGeometry)) {
+                    // keeping the id. any better suggestion?
+                    addClipped(layerName, attributes, subGeometry, id);
+                }
             }
             return;
         }
@@ -298,6 +413,9 @@ public class VectorTileEncoder {
             // some times a intersection is returned as an empty geometry.
             // going via wkt fixes the problem.
             if (geometry.isEmpty() && clipGeometryPrepared.intersects(original)) {
+                if (stats != null) {
+                    stats.wktFallback();
+                }
                 Geometry originalViaWkt = new WKTReader().read(original.toText());
                 geometry = clipGeometry.intersection(originalViaWkt);
             }
@@ -341,10 +459,7 @@ public class VectorTileEncoder {
                 if (geometry.isEmpty()) {
                     Collections.emptyList();
                 }
-                geomType = toGeomType(geometry);
-                x = 0;
-                y = 0;
-                return commands(geometry);
+                return commandEncoder.commands(geometry);
             }
         }
 
@@ -357,6 +472,8 @@ public class VectorTileEncoder {
     public byte[] encode() {
         
         VectorTile.Tile.Builder tile = VectorTile.Tile.newBuilder();
+        long serializeStart = stats != null ? System.nanoTime() : 0L;
+        long nonSerializeNanos = 0L;
 
         for (Map.Entry<String, Layer> e : layers.entrySet()) {
             String layerName = e.getKey();
@@ -395,7 +512,18 @@ public class VectorTileEncoder {
 
             tileLayer.setExtent(extent);
 
-            for (Feature feature : layer.features) {
+            List<Feature> features = layer.features;
+            if (spatialOrdering) {
+                long start = stats != null ? System.nanoTime() : 0L;
+                features = hilbertOrdered(features);
+                if (stats != null) {
+                    long nanos = System.nanoTime() - start;
+                    stats.sorted(nanos);
+                    nonSerializeNanos += nanos;
+                }
+            }
+
+            for (Feature feature : features) {
 
                 Geometry geometry = feature.geometry;
 
@@ -407,17 +535,39 @@ public class VectorTileEncoder {
                 }
                 
                 GeomType geomType = toGeomType(geometry);
-                x = 0;
-                y = 0;
-                List<Integer> commands = commands(geometry);
+                long start = stats != null ? System.nanoTime() : 0L;
+                List<Integer> commands = commandEncoder.commands(geometry);
+
+                if (stats != null) {
+                    long now = System.nanoTime();
+                    stats.commands(now - start);
+                    nonSerializeNanos += now - start;
+                    start = now;
+                }
 
                 // Extra step to parse and check validity and try to repair.
                 commands = validateAndRepairCommands(commands, geometry);
 
-                // skip features with no geometry commands
+                if (stats != null) {
+                    long nanos = System.nanoTime() - start;
+                    stats.validated(nanos);
+                    nonSerializeNanos += nanos;
+                }
+
+                // skip features with no geometry commands. each feature is
+                // only counted by the first encode() to see it
+                boolean count = stats != null && !feature.counted;
+                feature.counted = true;
                 if (commands.isEmpty()) {
+                    if (count) {
+                        stats.drop(EncoderStats.DropReason.EMPTY_COMMANDS);
+                    }
                     continue;
                 }
+
+                if (count) {
+                    stats.accept(commands);
+                }
                 
                 featureBuilder.setType(geomType);
                 featureBuilder.addAllGeometry(commands);
@@ -425,11 +575,76 @@ public class VectorTileEncoder {
                 tileLayer.addFeatures(featureBuilder.build());
             }
 
-            tile.addLayers(tileLayer.build());
+            VectorTile.Tile.Layer builtLayer = tileLayer.build();
+            if (stats != null) {
+                // only add what the layer grew since it was last encoded
+                int size = builtLayer.getSerializedSize();
+                stats.layer(layerName, size - layer.countedBytes);
+                layer.countedBytes = size;
+            }
+            tile.addLayers(builtLayer);
 
         }
 
-        return tile.build().toByteArray();
+        byte[] encoded = tile.build().toByteArray();
+        if (stats != null) {
+            stats.serialized(System.nanoTime() - serializeStart - nonSerializeNanos);
+        }
+        return encoded;
+    }
+
+    private List<Feature> hilbertOrdered(List<Feature> features) {
+        final double size = autoScale ? 256.0 : extent;
+        final int max = (1 << HILBERT_ORDER) - 1;
+        final long[] keys = new long[features.size()];
+        Integer[] order = new Integer[features.size()];
+        for (int i = 0; i < keys.length; i++) {
+            Envelope envelope = features.get(i).geometry.getEnvelopeInternal();
+            int hx = (int) Math.max(0, Math.min(max, Math.round(envelope.centre().x / size * max)));
+            int hy = (int) Math.max(0, Math.min(max, Math.round(envelope.centre().y / size * max)));
+            keys[i] = hilbertIndex(HILBERT_ORDER, hx, hy);
+            order[i] = Integer.valueOf(i);
+        }
+
+        // stable, so features at the same position keep their insertion order
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(keys[a.intValue()], keys[b.intValue()]);
+            }
+        });
+
+        List<Feature> sorted = new ArrayList<Feature>(features.size());
+        for (Integer i : order) {
+            sorted.add(features.get(i.intValue()));
+        }
+        return sorted;
+    }
+
+    private static final int HILBERT_ORDER = 16;
+
+    /**
+     * Distance of the cell (x, y) along a Hilbert curve filling a 2^order by
+     * 2^order grid.
+     */
+    static long hilbertIndex(int order, int x, int y) {
+        final int n = 1 << order;
+        long d = 0;
+        for (int s = n >>> 1; s > 0; s >>>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
     }
 
     private static final boolean isValid(Geometry geometry) {
@@ -462,186 +677,33 @@ public class VectorTileEncoder {
         return VectorTile.Tile.GeomType.UNKNOWN;
     }
 
-    static boolean shouldClosePath(Geometry geometry) {
-        return (geometry instanceof Polygon) || (geometry instanceof LinearRing);
-    }
-
     List<Integer> commands(Geometry geometry) {
-        
-        if (geometry instanceof MultiLineString) {
-            return commands((MultiLineString) geometry);
-        }
-        if (geometry instanceof Polygon) {
-            return commands((Polygon) geometry);
-        }
-        if (geometry instanceof MultiPolygon) {
-            return commands((MultiPolygon) geometry);
-        }        
-        
-        return commands(geometry.getCoordinates(), shouldClosePath(geometry), geometry instanceof MultiPoint);
+        return commandEncoder.commands(geometry);
     }
-    
-    List<Integer> commands(MultiLineString mls) {
-        List<Integer> commands = new ArrayList<Integer>();
-        for (int i = 0; i < mls.getNumGeometries(); i++) {
-            final int oldX = x;
-            final int oldY = y;
-            final List<Integer> geomCommands =
-                    commands(mls.getGeometryN(i).getCoordinates(), false);
-            if (geomCommands.size() > 3) {
-                // if the geometry consists of all identical points (after Math.round()) commands
-                // returns a single move_to command, which is not valid according to the vector tile
-                // specifications.
-                // (https://github.com/mapbox/vector-tile-spec/tree/master/2.1#4343-linestring-geometry-type)
-                commands.addAll(geomCommands);
-            } else {
-                // reset x and y to the previous value
-                x = oldX;
-                y = oldY;
-            }
-        }
-        return commands;
-    }
-    
-    List<Integer> commands(MultiPolygon mp) {
-        List<Integer> commands = new ArrayList<Integer>();
-        for (int i = 0; i < mp.getNumGeometries(); i++) {
-            Polygon polygon = (Polygon) mp.getGeometryN(i);
-            commands.addAll(commands(polygon));
-        }
-        return commands;
-    }
-    
-    List<Integer> commands(Polygon polygon) {
-        List<Integer> commands = new ArrayList<Integer>();
-
-        // According to the vector tile specification, the exterior ring of a polygon
-        // must be in clockwise order, while the interior ring in counter-clockwise order.
-        // In the tile coordinate system, Y axis is positive down.
-        //
-        // However, in geographic coordinate system, Y axis is positive up.
-        // Therefore, we must reverse the coordinates.
-        // So, the code below will make sure that exterior ring is in counter-clockwise order
-        // and interior ring in clockwise order.
-        LineString exteriorRing = polygon.getExteriorRing();
-        if (Area.ofRingSigned(exteriorRing.getCoordinates()) > 0) {
-            exteriorRing = exteriorRing.reverse();
-        }
-        commands.addAll(commands(exteriorRing.getCoordinates(), true));
-
-        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
-            LineString interiorRing = polygon.getInteriorRingN(i);
-            if (Area.ofRingSigned(interiorRing.getCoordinates()) < 0) {
-                interiorRing = interiorRing.reverse();
-            }
-            commands.addAll(commands(interiorRing.getCoordinates(), true));
-        }
-        return commands;
-    }
-
-    private int x = 0;
-    private int y = 0;
 
-    /**
-     * // // // Ex.: MoveTo(3, 6), LineTo(8, 12), LineTo(20, 34), ClosePath //
-     * Encoded as: [ 9 3 6 18 5 6 12 22 15 ] // == command type 7 (ClosePath),
-     * length 1 // ===== relative LineTo(+12, +22) == LineTo(20, 34) // ===
-     * relative LineTo(+5, +6) == LineTo(8, 12) // == [00010 010] = command type
-     * 2 (LineTo), length 2 // === relative MoveTo(+3, +6) // == [00001 001] =
-     * command type 1 (MoveTo), length 1 // Commands are encoded as uint32
-     * varints, vertex parameters are // encoded as sint32 varints (zigzag).
-     * Vertex parameters are // also encoded as deltas to the previous position.
-     * The original // position is (0,0)
-     *
-     * @param cs
-     * @return
-     */
     List<Integer> commands(Coordinate[] cs, boolean closePathAtEnd) {
         return commands(cs, closePathAtEnd, false);
     }
 
     List<Integer> commands(Coordinate[] cs, boolean closePathAtEnd, boolean multiPoint) {
-
-        if (cs.length == 0) {
-            return Collections.emptyList();
-        }
-
-        List<Integer> r = new ArrayList<Integer>();
-
-        int lineToIndex = 0;
-        int lineToLength = 0;
-
-        double scale = autoScale ? (extent / 256.0) : 1.0;
-
-        for (int i = 0; i < cs.length; i++) {
-            Coordinate c = cs[i];
-
-            if (i == 0) {
-                r.add(commandAndLength(Command.MoveTo, multiPoint ? cs.length : 1));
-            }
-
-            int _x = (int) Math.round(c.x * scale);
-            int _y = (int) Math.round(c.y * scale);
-
-            // prevent point equal to the previous
-            if (i > 0 && _x == x && _y == y) {
-                lineToLength--;
-                continue;
-            }
-
-            // prevent double closing
-            if (closePathAtEnd && cs.length > 1 && i == (cs.length - 1) && cs[0].equals(c)) {
-                lineToLength--;
-                continue;
-            }
-
-            // delta, then zigzag
-            r.add(zigZagEncode(_x - x));
-            r.add(zigZagEncode(_y - y));
-
-            x = _x;
-            y = _y;
-
-            if (i == 0 && cs.length > 1 && !multiPoint) {
-                // can length be too long?
-                lineToIndex = r.size();
-                lineToLength = cs.length - 1;
-                r.add(commandAndLength(Command.LineTo, lineToLength));
-            }
-
-        }
-
-        // update LineTo length
-        if (lineToIndex > 0) {
-            if (lineToLength == 0) {
-                // remove empty LineTo
-                r.remove(lineToIndex);
-            } else {
-                // update LineTo with new length
-                r.set(lineToIndex, commandAndLength(Command.LineTo, lineToLength));
-            }
-        }
-
-        if (closePathAtEnd) {
-            r.add(commandAndLength(Command.ClosePath, 1));
-        }
-
-        return r;
+        return commandEncoder.commands(cs, closePathAtEnd, multiPoint, new GeometryCommandEncoder.Cursor());
     }
 
     static int commandAndLength(int command, int repeat) {
-        return repeat << 3 | command;
+        return GeometryCommandEncoder.commandAndLength(command, repeat);
     }
 
     static int zigZagEncode(int n) {
-        // https://developers.google.com/protocol-buffers/docs/encoding#types
-        return (n << 1) ^ (n >> 31);
+        return GeometryCommandEncoder.zigZagEncode(n);
     }
 
     private static final class Layer {
 
         final List<Feature> features = new ArrayList<VectorTileEncoder.Feature>();
 
+        // the encoded size already added to the stats
+        long countedBytes;
+
         private final Map<String, Integer> keys = new LinkedHashMap<String, Integer>();
         private final Map<Object, Integer> values = new LinkedHashMap<Object, Integer>();
 
@@ -677,5 +739,8 @@ public class VectorTileEncoder {
         Geometry geometry;
         final List<Integer> tags = new ArrayList<Integer>();
 
+        // true once encode() has added this feature to the stats
+        boolean counted;
+
     }
 }
@@ -0,0 +1,221 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads protocol buffer wire format directly from a {@link ByteBuffer} using
+ * absolute positions only, so the position and limit of the buffer are never
+ * touched and several readers can share a buffer.
+ */
+final class WireReader {
+
+    static final int VARINT = 0;
+    static final int FIXED64 = 1;
+    static final int LENGTH_DELIMITED = 2;
+    static final int FIXED32 = 5;
+
+    private final ByteBuffer buffer;
+
+    int position;
+
+    int limit;
+
+    private final StringPool stringPool;
+
+    private byte[] scratch;
+
+    WireReader(ByteBuffer buffer) {
+        this(buffer, null);
+    }
+
+    WireReader(ByteBuffer buffer, StringPool stringPool) {
+        this.buffer = buffer;
+        this.stringPool = stringPool;
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    StringPool stringPool() {
+        return stringPool;
+    }
+
+    /**
+     * @return a new {@link ByteBuffer} sharing the given range of the given
+     *         buffer, with position 0 at the start of the range
+     */
+    static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        // cast for binary compatibility with java 8
+        ((Buffer) duplicate).limit(offset + length);
+        ((Buffer) duplicate).position(offset);
+        return duplicate.slice();
+    }
+
+    void reset(int position, int limit) {
+        this.position = position;
+        this.limit = limit;
+    }
+
+    boolean hasRemaining() {
+        return position < limit;
+    }
+
+    static int fieldNumber(int tag) {
+        return tag >>> 3;
+    }
+
+    static int wireType(int tag) {
+        return tag & 7;
+    }
+
+    int readTag() throws IOException {
+        int tag = readVarint32();
+        if (fieldNumber(tag) == 0) {
+            throw new IOException("Invalid tag at " + position);
+        }
+        return tag;
+    }
+
+    long readVarint64() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= limit) {
+                throw new IOException("Truncated varint at " + position);
+            }
+            byte b = buffer.get(position++);
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint at " + position);
+    }
+
+    int readVarint32() throws IOException {
+        if (position < limit) {
+            // fast path for the common one byte varint
+            byte b = buffer.get(position);
+            if (b >= 0) {
+                position++;
+                return b;
+            }
+        }
+        return (int) readVarint64();
+    }
+
+    /**
+     * Read the length prefix of a length delimited field and check that it
+     * fits within the limit.
+     */
+    int readLength() throws IOException {
+        int length = readVarint32();
+        if (length < 0 || length > limit - position) {
+            throw new IOException("Invalid length " + length + " at " + position);
+        }
+        return length;
+    }
+
+    int readFixed32() throws IOException {
+        if (limit - position < 4) {
+            throw new IOException("Truncated fixed32 at " + position);
+        }
+        int p = position;
+        position += 4;
+        return (buffer.get(p) & 0xFF) | (buffer.get(p + 1) & 0xFF) << 8 | (buffer.get(p + 2) & 0xFF) << 16
+                | (buffer.get(p + 3) & 0xFF) << 24;
+    }
+
+    long readFixed64() throws IOException {
+        long low = readFixed32() & 0xFFFFFFFFL;
+        long high = readFixed32() & 0xFFFFFFFFL;
+        return high << 32 | low;
+    }
+
+    void skip(int wireType) throws IOException {
+        switch (wireType) {
+        case VARINT:
+            readVarint64();
+            break;
+        case FIXED64:
+            skipBytes(8);
+            break;
+        case LENGTH_DELIMITED:
+            int length = readLength();
+            position += length;
+            break;
+        case FIXED32:
+            skipBytes(4);
+            break;
+        default:
+            throw new IOException("Unsupported wire type " + wireType + " at " + position);
+        }
+    }
+
+    private void skipBytes(int n) throws IOException {
+        if (limit - position < n) {
+            throw new IOException("Truncated field at " + position);
+        }
+        position += n;
+    }
+
+    /**
+     * Count the varints in the given range, as used by packed repeated fields.
+     */
+    int countVarints(int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    String string(int offset, int length) {
+        if (stringPool != null) {
+            return stringPool.get(buffer, offset, length);
+        }
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        return new String(bytes(offset, length), 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copy the given range into a reused scratch array. The content is only
+     * valid until the next call.
+     */
+    byte[] bytes(int offset, int length) {
+        if (scratch == null || scratch.length < length) {
+            scratch = new byte[Math.max(length, 64)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = buffer.get(offset + i);
+        }
+        return scratch;
+    }
+
+}
@@ -0,0 +1,249 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+import no.ecc.vectortile.VectorTileDecoder.Feature;
+
+public class BatchDecoderTest extends TestCase {
+
+    private static final String[] TILES = { "/14-8801-5371.vector.pbf", "/cells-11-1058-568.mvt",
+            "/cells-11-1065-567.mvt" };
+
+    public void testDecode() throws Exception {
+        List<byte[]> tiles = new ArrayList<byte[]>();
+        long expected = 0;
+        for (int i = 0; i < 10; i++) {
+            for (String name : TILES) {
+                byte[] data = toBytes(getClass().getResourceAsStream(name));
+                tiles.add(data);
+                expected += new VectorTileDecoder().decode(data).asList().size();
+            }
+        }
+
+        final AtomicLong vertices = new AtomicLong();
+        BatchDecoder batch = new BatchDecoder();
+        batch.setThreads(3);
+        BatchDecoder.Result<byte[]> result = batch.decode(tiles, new BatchDecoder.FeatureConsumer<byte[]>() {
+
+            @Override
+            public void accept(byte[] tile, Feature feature) {
+                vertices.addAndGet(feature.getGeometry().getNumPoints());
+            }
+
+        });
+
+        assertTrue(result.getFailures().toString(), result.isSuccess());
+        assertEquals(tiles.size(), result.getTileCount());
+        assertEquals(expected, result.getFeatureCount());
+        assertTrue(vertices.get() > 0);
+    }
+
+    public void testFailures() throws Exception {
+        final byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        final int features = new VectorTileDecoder().decode(data, "poi_label").asList().size();
+
+        BatchDecoder batch = new BatchDecoder();
+        batch.setFilter(new Filter.Single("poi_label"));
+        BatchDecoder.Result<String> result = batch.decode(Arrays.asList("good", "missing", "broken", "consumer",
+                "error"),
+                new BatchDecoder.TileReader<String>() {
+
+                    @Override
+                    public byte[] read(String tile) throws IOException {
+                        if (tile.equals("missing")) {
+                            throw new IOException("no such tile");
+                        }
+                        if (tile.equals("broken")) {
+                            return Arrays.copyOf(data, data.length / 2);
+                        }
+                        return data;
+                    }
+
+                }, new BatchDecoder.FeatureConsumer<String>() {
+
+                    @Override
+                    public void accept(String tile, Feature feature) {
+                        if (tile.equals("consumer")) {
+                            throw new IllegalStateException("rejected");
+                        }
+                        if (tile.equals("error")) {
+                            throw new AssertionError("failed");
+                        }
+                    }
+
+                });
+
+        assertEquals(5, result.getTileCount());
+        assertEquals(features, result.getFeatureCount());
+        assertFalse(result.isSuccess());
+        List<String> failed = new ArrayList<String>();
+        for (BatchDecoder.Failure<String> failure : result.getFailures()) {
+            failed.add(failure.getTile());
+            if (failure.getTile().equals("consumer")) {
+                assertTrue(failure.getCause() instanceof IllegalStateException);
+            } else if (failure.getTile().equals("error")) {
+                assertTrue(failure.getCause() instanceof AssertionError);
+            } else {
+                assertTrue(failure.getCause() instanceof IOException);
+            }
+        }
+        failed.sort(null);
+        assertEquals(Arrays.asList("broken", "consumer", "error", "missing"), failed);
+    }
+
+    public void testInterrupted() throws Exception {
+        final byte[] data = toBytes(getClass().getResourceAsStream("/cells-11-1065-567.mvt"));
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        final AtomicInteger consumed = new AtomicInteger();
+
+        BatchDecoder batch = new BatchDecoder();
+        batch.setQueueCapacity(1);
+        batch.setExecutor(new Executor() {
+
+            @Override
+            public void execute(Runnable command) {
+                // hold the task, and interrupt the caller waiting for it
+                queued.add(command);
+                Thread.currentThread().interrupt();
+            }
+
+        });
+
+        try {
+            batch.decode(Arrays.asList(data, data, data), new BatchDecoder.FeatureConsumer<byte[]>() {
+
+                @Override
+                public void accept(byte[] tile, Feature feature) {
+                    consumed.incrementAndGet();
+                }
+
+            });
+            fail("interrupted");
+        } catch (InterruptedException e) {
+            // expected
+        }
+        assertEquals(1, queued.size());
+
+        // a task that runs after the batch was cancelled does nothing
+        queued.get(0).run();
+        assertEquals(0, consumed.get());
+    }
+
+    public void testQueueCapacity() throws Exception {
+        final byte[] data = toBytes(getClass().getResourceAsStream("/cells-11-1065-567.mvt"));
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicInteger maxPending = new AtomicInteger();
+
+        BatchDecoder batch = new BatchDecoder();
+        batch.setQueueCapacity(2);
+        batch.setExecutor(new Executor() {
+
+            @Override
+            public void execute(final Runnable command) {
+                int now = pending.incrementAndGet();
+                maxPending.accumulateAndGet(now, Math::max);
+                new Thread() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        pending.decrementAndGet();
+                        command.run();
+                    }
+
+                }.start();
+            }
+
+        });
+
+        List<byte[]> tiles = new ArrayList<byte[]>();
+        for (int i = 0; i < 20; i++) {
+            tiles.add(data);
+        }
+        BatchDecoder.Result<byte[]> result = batch.decode(tiles, new BatchDecoder.FeatureConsumer<byte[]>() {
+
+            @Override
+            public void accept(byte[] tile, Feature feature) {
+            }
+
+        });
+
+        assertTrue(result.isSuccess());
+        assertEquals(20, result.getTileCount());
+        assertEquals(20 * 306, result.getFeatureCount());
+        assertTrue(maxPending.get() <= 2);
+    }
+
+    public void testDecodePaths() throws Exception {
+        List<Path> paths = new ArrayList<Path>();
+        long expected = 0;
+        try {
+            for (String name : TILES) {
+                byte[] data = toBytes(getClass().getResourceAsStream(name));
+                Path path = Files.createTempFile("batch", ".mvt");
+                Files.write(path, data);
+                paths.add(path);
+                expected += new VectorTileDecoder().decode(data).asList().size();
+            }
+
+            BatchDecoder.Result<Path> result = new BatchDecoder().decodePaths(paths,
+                    new BatchDecoder.FeatureConsumer<Path>() {
+
+                        @Override
+                        public void accept(Path tile, Feature feature) {
+                        }
+
+                    });
+            assertTrue(result.isSuccess());
+            assertEquals(expected, result.getFeatureCount());
+        } finally {
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static byte[] toBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int bytesRead = 0;
+        while ((bytesRead = in.read(buf)) != -1) {
+            baos.write(buf, 0, bytesRead);
+        }
+        return baos.toByteArray();
+    }
+
+}
@@ -0,0 +1,92 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import junit.framework.TestCase;
+
+public class GeometryCommandEncoderTest extends TestCase {
+
+    private GeometryFactory gf = new GeometryFactory();
+
+    public void testCursor() {
+        GeometryCommandEncoder encoder = new GeometryCommandEncoder(1.0, false);
+        GeometryCommandEncoder.Cursor cursor = new GeometryCommandEncoder.Cursor();
+
+        Geometry line = gf.createLineString(new Coordinate[] { new Coordinate(3, 6), new Coordinate(8, 12) });
+        assertEquals(Arrays.asList(9, 6, 12, 10, 10, 12), encoder.commands(line, cursor));
+        assertEquals(8, cursor.getX());
+        assertEquals(12, cursor.getY());
+
+        // relative to the previous position
+        assertEquals(Arrays.asList(9, 9, 11, 10, 10, 12), encoder.commands(line, cursor));
+
+        cursor.reset();
+        assertEquals(encoder.commands(line), encoder.commands(line, cursor));
+    }
+
+    public void testScale() {
+        GeometryCommandEncoder encoder = new GeometryCommandEncoder(4096 / 256.0, false);
+        Geometry point = gf.createPoint(new Coordinate(1, 2));
+        assertEquals(Arrays.asList(9, 32, 64), encoder.commands(point));
+    }
+
+    public void testSharedBetweenThreads() throws Exception {
+        final GeometryCommandEncoder encoder = new GeometryCommandEncoder(1.0, true);
+        final List<Geometry> geometries = new ArrayList<Geometry>();
+        for (int i = 0; i < 200; i++) {
+            geometries.add(gf.createPoint(new Coordinate(i, i * 2)).buffer(10 + i % 7));
+        }
+
+        List<List<Integer>> expected = new ArrayList<List<Integer>>();
+        for (Geometry geometry : geometries) {
+            expected.add(encoder.commands(geometry));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Integer>>> futures = new ArrayList<Future<List<Integer>>>();
+            for (final Geometry geometry : geometries) {
+                futures.add(executor.submit(new Callable<List<Integer>>() {
+                    @Override
+                    public List<Integer> call() {
+                        return encoder.commands(geometry);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(expected.get(i), futures.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
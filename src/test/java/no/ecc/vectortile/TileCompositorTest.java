@@ -0,0 +1,248 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import junit.framework.TestCase;
+import no.ecc.vectortile.VectorTileDecoder.Feature;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import vector_tile.VectorTile;
+
+public class TileCompositorTest extends TestCase {
+
+    private final GeometryFactory gf = new GeometryFactory();
+
+    public void testDisjointLayers() throws IOException {
+        byte[] base = tile("roads", "kind", "primary", 512);
+        byte[] labels = tile("labels", "name", "Oslo", 512);
+
+        byte[] composite = new TileCompositor().composite(base, labels);
+        byte[] concatenated = Arrays.copyOf(base, base.length + labels.length);
+        System.arraycopy(labels, 0, concatenated, base.length, labels.length);
+        assertTrue(Arrays.equals(concatenated, composite));
+
+        List<Feature> features = new VectorTileDecoder().decode(composite).asList();
+        assertEquals(2, features.size());
+        assertEquals("roads", features.get(0).getLayerName());
+        assertEquals("Oslo", features.get(1).getAttributes().get("name"));
+    }
+
+    public void testFail() throws IOException {
+        TileCompositor compositor = new TileCompositor();
+        assertEquals(TileCompositor.Conflict.FAIL, compositor.getConflict());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            compositor.composite(Arrays.asList(ByteBuffer.wrap(tile("roads", "kind", "primary", 512)), ByteBuffer
+                    .wrap(tile("poi", "kind", "shop", 512)), ByteBuffer.wrap(tile("poi", "kind", "cafe", 512))), out);
+            fail("same layer name in two tiles");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("poi"));
+        }
+        // the layer before the conflict is not written either
+        assertEquals(0, out.size());
+    }
+
+    public void testRename() throws IOException {
+        TileCompositor compositor = new TileCompositor();
+        compositor.setConflict(TileCompositor.Conflict.RENAME);
+        byte[] composite = compositor.composite(tile("poi", "kind", "shop", 512), tile("poi_2", "kind", "bank",
+                512), tile("poi", "kind", "cafe", 512));
+
+        List<Feature> features = new VectorTileDecoder().decode(composite).asList();
+        assertEquals(3, features.size());
+        assertEquals("poi", features.get(0).getLayerName());
+        assertEquals("shop", features.get(0).getAttributes().get("kind"));
+        assertEquals("poi_2", features.get(1).getLayerName());
+        assertEquals("bank", features.get(1).getAttributes().get("kind"));
+        assertEquals("poi_3", features.get(2).getLayerName());
+        assertEquals("cafe", features.get(2).getAttributes().get("kind"));
+    }
+
+    public void testMerge() throws IOException {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("kind", "cafe");
+        attributes.put("name", "Kaffebrenneriet");
+        attributes.put("seats", 20);
+        VectorTileEncoder e = new VectorTileEncoder(512);
+        e.addFeature("poi", attributes, gf.createPoint(new Coordinate(7, 8)), 42);
+        e.addFeature("poi", new HashMap<String, Object>(), gf.createPoint(new Coordinate(9, 10)));
+        byte[] second = e.encode();
+        byte[] first = tile("poi", "kind", "cafe", 512);
+
+        TileCompositor compositor = new TileCompositor();
+        compositor.setConflict(TileCompositor.Conflict.MERGE);
+        byte[] composite = compositor.composite(first, second);
+
+        VectorTile.Tile tile = VectorTile.Tile.parseFrom(composite);
+        assertEquals(1, tile.getLayersCount());
+        VectorTile.Tile.Layer layer = tile.getLayers(0);
+        assertEquals(3, layer.getFeaturesCount());
+        assertEquals(Arrays.asList("kind", "name", "seats"), new ArrayList<String>(new TreeSet<String>(
+                layer.getKeysList())));
+        assertEquals(3, layer.getValuesCount());
+        assertEquals(512, layer.getExtent());
+
+        List<Feature> expected = new ArrayList<Feature>();
+        expected.addAll(new VectorTileDecoder().decode(first).asList());
+        expected.addAll(new VectorTileDecoder().decode(second).asList());
+        assertFeaturesEqual(expected, new VectorTileDecoder().decode(composite).asList());
+        assertEquals(42, new VectorTileDecoder().decode(composite).asList().get(1).getId());
+    }
+
+    public void testMergeExtents() throws IOException {
+        TileCompositor compositor = new TileCompositor();
+        compositor.setConflict(TileCompositor.Conflict.MERGE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            compositor.composite(Arrays.asList(ByteBuffer.wrap(tile("roads", "kind", "primary", 512)), ByteBuffer
+                    .wrap(tile("poi", "kind", "shop", 512)), ByteBuffer.wrap(tile("poi", "kind", "cafe", 4096))), out);
+            fail("different extents");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("extent"));
+        }
+        assertEquals(0, out.size());
+    }
+
+    public void testMergeVersions() throws IOException {
+        byte[] first = tile("poi", "kind", "shop", 512);
+        VectorTile.Tile.Builder builder = VectorTile.Tile.parseFrom(tile("poi", "kind", "cafe", 512)).toBuilder();
+        builder.getLayersBuilder(0).setVersion(1);
+        byte[] second = builder.build().toByteArray();
+
+        TileCompositor compositor = new TileCompositor();
+        compositor.setConflict(TileCompositor.Conflict.MERGE);
+        // the highest version is written, whatever the order of the tiles
+        for (byte[][] tiles : new byte[][][] { { first, second }, { second, first } }) {
+            VectorTile.Tile merged = VectorTile.Tile.parseFrom(compositor.composite(tiles));
+            assertEquals(1, merged.getLayersCount());
+            assertEquals(2, merged.getLayers(0).getVersion());
+            assertEquals(2, merged.getLayers(0).getFeaturesCount());
+        }
+    }
+
+    public void testMergeMalformedTags() throws IOException {
+        // the packed tags field is one byte long, but its varint is not
+        // ended until the type field that follows
+        byte[] feature = new byte[] { 0x12, 0x01, (byte) 0x80, 0x18, 0x01, 0x22, 0x03, 0x09, 0x06, 0x0c };
+        byte[] layer = VectorTile.Tile.Layer.newBuilder().setVersion(2).setName("poi").setExtent(512)
+                .addKeys("name").addValues(VectorTile.Tile.Value.newBuilder().setStringValue("x")).build()
+                .toByteArray();
+        ByteArrayOutputStream malformed = new ByteArrayOutputStream();
+        CodedOutputStream output = CodedOutputStream.newInstance(malformed);
+        output.writeTag(VectorTile.Tile.LAYERS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(layer.length + 2 + feature.length);
+        output.writeRawBytes(layer);
+        output.writeTag(VectorTile.Tile.Layer.FEATURES_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(feature.length);
+        output.writeRawBytes(feature);
+        output.flush();
+
+        TileCompositor compositor = new TileCompositor();
+        compositor.setConflict(TileCompositor.Conflict.MERGE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            compositor.composite(Arrays.asList(ByteBuffer.wrap(tile("roads", "kind", "primary", 512)), ByteBuffer
+                    .wrap(tile("poi", "kind", "shop", 512)), ByteBuffer.wrap(malformed.toByteArray())), out);
+            fail("malformed tags");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("varint"));
+        }
+        assertEquals(0, out.size());
+    }
+
+    public void testMergeWithItself() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        TileCompositor compositor = new TileCompositor();
+        compositor.setConflict(TileCompositor.Conflict.MERGE);
+        byte[] composite = compositor.composite(data, data);
+
+        VectorTile.Tile tile = VectorTile.Tile.parseFrom(data);
+        VectorTile.Tile merged = VectorTile.Tile.parseFrom(composite);
+        assertEquals(tile.getLayersCount(), merged.getLayersCount());
+        for (int i = 0; i < tile.getLayersCount(); i++) {
+            VectorTile.Tile.Layer layer = tile.getLayers(i);
+            VectorTile.Tile.Layer mergedLayer = merged.getLayers(i);
+            assertEquals(layer.getName(), mergedLayer.getName());
+            assertEquals(layer.getKeysList(), mergedLayer.getKeysList());
+            assertEquals(layer.getValuesList(), mergedLayer.getValuesList());
+            assertEquals(layer.getFeaturesCount() * 2, mergedLayer.getFeaturesCount());
+            for (int j = 0; j < layer.getFeaturesCount(); j++) {
+                assertEquals(layer.getFeatures(j), mergedLayer.getFeatures(j));
+                assertEquals(layer.getFeatures(j), mergedLayer.getFeatures(j + layer.getFeaturesCount()));
+            }
+        }
+
+        // the second tile is remapped when the dictionaries differ
+        byte[] swapped = compositor.composite(tile("building", "height", "12", 4096), data);
+        List<Feature> expected = new ArrayList<Feature>();
+        for (Feature feature : new VectorTileDecoder().decode(data)) {
+            if (feature.getLayerName().equals("building")) {
+                expected.add(feature);
+            }
+        }
+        List<Feature> actual = new VectorTileDecoder().decode(swapped, "building").asList();
+        assertEquals(expected.size() + 1, actual.size());
+        assertFeaturesEqual(expected, actual.subList(1, actual.size()));
+    }
+
+    private byte[] tile(String layerName, String key, String value, int extent) {
+        VectorTileEncoder e = new VectorTileEncoder(extent);
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put(key, value);
+        e.addFeature(layerName, attributes, gf.createPoint(new Coordinate(3, 4)));
+        return e.encode();
+    }
+
+    private static void assertFeaturesEqual(List<Feature> expected, List<Feature> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getGeometry(), actual.get(i).getGeometry());
+            assertEquals(new HashMap<String, Object>(expected.get(i).getAttributes()),
+                    new HashMap<String, Object>(actual.get(i).getAttributes()));
+        }
+    }
+
+    private static byte[] toBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int bytesRead = 0;
+        while ((bytesRead = in.read(buf)) != -1) {
+            baos.write(buf, 0, bytesRead);
+        }
+        return baos.toByteArray();
+    }
+
+}
@@ -0,0 +1,147 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+import no.ecc.vectortile.VectorTileDecoder.Feature;
+import vector_tile.VectorTile;
+
+public class TileRewriterTest extends TestCase {
+
+    public void testCopyAll() throws IOException {
+        for (String name : new String[] { "/14-8801-5371.vector.pbf", "/bigtile.vector.pbf",
+                "/cells-11-1058-568.mvt" }) {
+            byte[] data = toBytes(getClass().getResourceAsStream(name));
+            assertTrue(Arrays.equals(data, new TileRewriter().rewrite(data)));
+        }
+    }
+
+    public void testFilter() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        VectorTile.Tile tile = VectorTile.Tile.parseFrom(data);
+
+        TileRewriter rewriter = new TileRewriter();
+        rewriter.setFilter(new Filter.Any(new HashSet<String>(Arrays.asList("road", "building"))));
+        VectorTile.Tile rewritten = VectorTile.Tile.parseFrom(rewriter.rewrite(data));
+
+        assertEquals(2, rewritten.getLayersCount());
+        for (VectorTile.Tile.Layer layer : rewritten.getLayersList()) {
+            assertEquals(find(tile, layer.getName()), layer);
+        }
+    }
+
+    public void testRename() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        VectorTile.Tile tile = VectorTile.Tile.parseFrom(data);
+
+        TileRewriter rewriter = new TileRewriter();
+        rewriter.setFilter(new Filter.Any(new HashSet<String>(Arrays.asList("poi_label", "water"))));
+        rewriter.rename("poi_label", "poi");
+        rewriter.rename("water", "water");
+        assertEquals(1, rewriter.getRenames().size());
+
+        // the layer is written from a buffer that does not start at zero
+        byte[] padded = new byte[data.length + 10];
+        System.arraycopy(data, 0, padded, 5, data.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded, 5, data.length);
+        byte[] rewrittenData = rewriter.rewrite(buffer);
+        assertEquals(5, buffer.position());
+
+        VectorTile.Tile rewritten = VectorTile.Tile.parseFrom(rewrittenData);
+        assertEquals(2, rewritten.getLayersCount());
+        assertEquals(find(tile, "poi_label").toBuilder().setName("poi").build(), find(rewritten, "poi"));
+        assertEquals(find(tile, "water"), find(rewritten, "water"));
+
+        List<Feature> expected = new VectorTileDecoder().decode(data, "poi_label").asList();
+        List<Feature> actual = new VectorTileDecoder().decode(rewrittenData, "poi").asList();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("poi", actual.get(i).getLayerName());
+            assertEquals(expected.get(i).getId(), actual.get(i).getId());
+            assertEquals(expected.get(i).getGeometry(), actual.get(i).getGeometry());
+            assertEquals(expected.get(i).getAttributes(), actual.get(i).getAttributes());
+        }
+    }
+
+    public void testRenameCollision() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+
+        TileRewriter rewriter = new TileRewriter();
+        rewriter.rename("poi_label", "water");
+        assertCollision(rewriter, data, "water");
+
+        // no collision when the other layer is not kept
+        rewriter.setFilter(new Filter.Any(new HashSet<String>(Arrays.asList("poi_label", "road"))));
+        VectorTile.Tile rewritten = VectorTile.Tile.parseFrom(rewriter.rewrite(data));
+        assertEquals(2, rewritten.getLayersCount());
+        find(rewritten, "water");
+
+        // or when it is renamed as well
+        rewriter.setFilter(Filter.ALL);
+        rewriter.rename("water", "lakes");
+        rewritten = VectorTile.Tile.parseFrom(rewriter.rewrite(data));
+        find(rewritten, "water");
+        find(rewritten, "lakes");
+
+        rewriter = new TileRewriter();
+        rewriter.rename("poi_label", "points");
+        rewriter.rename("road_label", "points");
+        assertCollision(rewriter, data, "points");
+    }
+
+    private static void assertCollision(TileRewriter rewriter, byte[] data, String name) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            rewriter.rewrite(ByteBuffer.wrap(data), out);
+            fail("two layers named " + name);
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(name));
+        }
+        assertEquals(0, out.size());
+    }
+
+    private static VectorTile.Tile.Layer find(VectorTile.Tile tile, String name) {
+        for (VectorTile.Tile.Layer layer : tile.getLayersList()) {
+            if (layer.getName().equals(name)) {
+                return layer;
+            }
+        }
+        fail("no layer " + name);
+        return null;
+    }
+
+    private static byte[] toBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int bytesRead = 0;
+        while ((bytesRead = in.read(buf)) != -1) {
+            baos.write(buf, 0, bytesRead);
+        }
+        return baos.toByteArray();
+    }
+
+}
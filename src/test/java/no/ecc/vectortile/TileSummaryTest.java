@@ -0,0 +1,117 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import no.ecc.vectortile.VectorTileDecoder.FeatureIterable;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import vector_tile.VectorTile;
+import vector_tile.VectorTile.Tile.GeomType;
+
+public class TileSummaryTest extends TestCase {
+
+    public void testScan() throws IOException {
+        for (String name : new String[] { "/14-8801-5371.vector.pbf", "/bigtile.vector.pbf",
+                "/cells-11-1058-568.mvt", "/cells-11-1065-567.mvt" }) {
+            byte[] data = toBytes(getClass().getResourceAsStream(name));
+            VectorTile.Tile tile = VectorTile.Tile.parseFrom(data);
+            TileSummary summary = TileSummary.scan(data);
+
+            assertEquals(data.length, summary.getByteSize());
+            assertEquals(tile.getLayersCount(), summary.getLayers().size());
+            int featureCount = 0;
+            for (int i = 0; i < tile.getLayersCount(); i++) {
+                VectorTile.Tile.Layer layer = tile.getLayers(i);
+                TileSummary.LayerSummary layerSummary = summary.getLayers().get(i);
+                assertEquals(layer.getName(), layerSummary.getName());
+                assertEquals(layer.getName(), summary.getLayerNames().get(i));
+                assertEquals(layer.getVersion(), layerSummary.getVersion());
+                assertEquals(layer.getExtent(), layerSummary.getExtent());
+                assertEquals(layer.getFeaturesCount(), layerSummary.getFeatureCount());
+                assertEquals(layer.getKeysCount(), layerSummary.getKeyCount());
+                assertEquals(layer.getValuesCount(), layerSummary.getValueCount());
+                assertEquals(layer.getSerializedSize(), layerSummary.getByteSize());
+
+                Map<GeomType, Integer> types = new EnumMap<GeomType, Integer>(GeomType.class);
+                for (VectorTile.Tile.Feature feature : layer.getFeaturesList()) {
+                    Integer count = types.get(feature.getType());
+                    types.put(feature.getType(), count == null ? 1 : count + 1);
+                }
+                assertEquals(types, layerSummary.getGeometryTypes());
+                for (GeomType type : GeomType.values()) {
+                    assertEquals(types.containsKey(type) ? types.get(type).intValue() : 0,
+                            layerSummary.getFeatureCount(type));
+                }
+                featureCount += layer.getFeaturesCount();
+            }
+            assertEquals(featureCount, summary.getFeatureCount());
+        }
+    }
+
+    public void testScanEncoded() throws IOException {
+        GeometryFactory gf = new GeometryFactory();
+        VectorTileEncoder e = new VectorTileEncoder(512);
+        Map<String, Object> attributes = Collections.<String, Object> singletonMap("key", "value");
+        e.addFeature("points", attributes, gf.createPoint(new Coordinate(1, 2)));
+        e.addFeature("points", attributes, gf.createPoint(new Coordinate(3, 4)));
+        e.addFeature("lines", attributes, gf.createLineString(new Coordinate[] { new Coordinate(1, 2),
+                new Coordinate(3, 4) }));
+        TileSummary summary = TileSummary.scan(e.encode());
+
+        TileSummary.LayerSummary points = summary.getLayer("points");
+        assertEquals(2, points.getFeatureCount());
+        assertEquals(2, points.getFeatureCount(GeomType.POINT));
+        assertEquals(0, points.getFeatureCount(GeomType.LINESTRING));
+        assertEquals(512, points.getExtent());
+        assertEquals(2, points.getVersion());
+        assertEquals(1, points.getKeyCount());
+        assertEquals(1, points.getValueCount());
+        assertEquals(1, summary.getLayer("lines").getFeatureCount(GeomType.LINESTRING));
+        assertNull(summary.getLayer("polygons"));
+        assertEquals(3, summary.getFeatureCount());
+    }
+
+    public void testLayerNamesAreShared() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        FeatureIterable features = new VectorTileDecoder().decode(data, "building");
+        assertSame(features.getLayerNames(), features.getLayerNames());
+        assertEquals(TileSummary.scan(data).getLayerNames().size(), features.getLayerNames().size());
+    }
+
+    private static byte[] toBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int bytesRead = 0;
+        while ((bytesRead = in.read(buf)) != -1) {
+            baos.write(buf, 0, bytesRead);
+        }
+        return baos.toByteArray();
+    }
+
+}
@@ -0,0 +1,324 @@
+/*****************************************************************
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ ****************************************************************/
+package no.ecc.vectortile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import junit.framework.TestCase;
+import no.ecc.vectortile.VectorTileDecoder.Feature;
+import vector_tile.VectorTile.Tile.GeomType;
+
+public class VectorTileBufferTest extends TestCase {
+
+    private static final String[] TILES = { "/14-8801-5371.vector.pbf", "/bigtile.vector.pbf",
+            "/cells-11-1058-568.mvt", "/cells-11-1065-567.mvt" };
+
+    private GeometryFactory gf = new GeometryFactory();
+
+    public void testSameAsDecoder() throws IOException {
+        for (String tile : TILES) {
+            byte[] data = toBytes(getClass().getResourceAsStream(tile));
+            assertSameAsDecoder(data, ByteBuffer.wrap(data));
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data);
+            direct.flip();
+            assertSameAsDecoder(data, direct);
+        }
+    }
+
+    private void assertSameAsDecoder(byte[] data, ByteBuffer buffer) throws IOException {
+        List<Feature> expected = new VectorTileDecoder().decode(data).asList();
+        int i = 0;
+        VectorTileBuffer.LayerCursor layer = new VectorTileBuffer(buffer).layers();
+        while (layer.next()) {
+            int features = 0;
+            VectorTileBuffer.FeatureCursor feature = layer.features();
+            while (feature.next()) {
+                Feature e = expected.get(i++);
+                assertEquals(e.getLayerName(), layer.name());
+                assertTrue(layer.nameEquals(e.getLayerName()));
+                assertEquals(e.getExtent(), layer.extent());
+                assertEquals(e.getId(), feature.id());
+
+                Map<String, Object> attributes = new HashMap<String, Object>();
+                for (int t = 0; t < feature.tagCount(); t += 2) {
+                    attributes.put(layer.key(feature.tag(t)), layer.value(feature.tag(t + 1)));
+                }
+                assertEquals(e.getAttributes(), attributes);
+                assertEquals(e.getGeometry(), feature.geometry(gf, true));
+                assertTrue(Arrays.equals(e.getGeometryCommands(), commands(feature)));
+                GeometryBuffer expectedBuffer = e.getGeometry(new GeometryBuffer());
+                GeometryBuffer actualBuffer = feature.geometry(null);
+                assertEquals(expectedBuffer.getType(), actualBuffer.getType());
+                assertEquals(expectedBuffer.getPartCount(), actualBuffer.getPartCount());
+                assertEquals(expectedBuffer.getVertexCount(), actualBuffer.getVertexCount());
+                features++;
+            }
+            assertEquals(layer.featureCount(), features);
+        }
+        assertEquals(expected.size(), i);
+        assertEquals(0, buffer.position());
+    }
+
+    private static int[] commands(VectorTileBuffer.FeatureCursor feature) throws IOException {
+        int[] commands = new int[feature.commandCount()];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = feature.command(i);
+        }
+        return commands;
+    }
+
+    public void testOnlyReadsWhatIsAsked() throws IOException {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("name", "a");
+        attributes.put("n", Long.valueOf(-3));
+        VectorTileEncoder e = new VectorTileEncoder(256);
+        e.addFeature("first", attributes, gf.createPoint(new Coordinate(2, 3)), 7);
+        e.addFeature("second", attributes,
+                gf.createLineString(new Coordinate[] { new Coordinate(1, 1), new Coordinate(5, 5) }), 8);
+        byte[] encoded = e.encode();
+
+        // some bytes in front, as when a tile is stored inside a larger file
+        ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 3);
+        buffer.position(3);
+        buffer.put(encoded);
+        buffer.position(3);
+
+        VectorTileBuffer.LayerCursor layer = new VectorTileBuffer(buffer).layers();
+        assertTrue(layer.next());
+        assertFalse(layer.nameEquals("second"));
+        assertTrue(layer.next());
+        assertTrue(layer.nameEquals("second"));
+        assertEquals(1, layer.featureCount());
+        assertEquals(2, layer.keyCount());
+        VectorTileBuffer.FeatureCursor feature = layer.features();
+        assertTrue(feature.next());
+        assertEquals(8, feature.id());
+        assertEquals(GeomType.LINESTRING, feature.type());
+        assertEquals(6, feature.commandCount());
+        assertEquals(VectorTileEncoder.commandAndLength(Command.MoveTo, 1), feature.command(0));
+        assertFalse(feature.next());
+        assertFalse(layer.next());
+
+        try {
+            layer.name();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    public void testMalformed() {
+        byte[] data = new byte[] { 0x1A, 0x7F, 0x0A };
+        try {
+            new VectorTileBuffer(ByteBuffer.wrap(data)).layers().next();
+            fail("expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testTileCursor() throws IOException {
+        for (String tile : TILES) {
+            byte[] data = toBytes(getClass().getResourceAsStream(tile));
+            List<Feature> expected = new VectorTileDecoder().decode(data).asList();
+            VectorTileBuffer.TileCursor cursor = new VectorTileBuffer(ByteBuffer.wrap(data)).cursor();
+            GeometryBuffer geometry = new GeometryBuffer();
+            GeometryBuffer expectedGeometry = new GeometryBuffer();
+            for (int pass = 0; pass < 2; pass++) {
+                int i = 0;
+                while (cursor.next()) {
+                    Feature e = expected.get(i++);
+                    assertEquals(e.getLayerName(), cursor.layerName());
+                    assertEquals(e.getExtent(), cursor.extent());
+                    assertEquals(e.getId(), cursor.id());
+                    assertEquals(e.getGeometryType(), cursor.type());
+                    assertEquals(e.getAttributes().size() * 2, cursor.tagCount());
+                    assertSame(geometry, cursor.geometry(geometry));
+                    e.getGeometry(expectedGeometry);
+                    assertEquals(expectedGeometry.getVertexCount(), geometry.getVertexCount());
+                    for (int v = 0; v < geometry.getVertexCount(); v++) {
+                        assertEquals(expectedGeometry.getX(v), geometry.getX(v));
+                        assertEquals(expectedGeometry.getY(v), geometry.getY(v));
+                    }
+                }
+                assertEquals(expected.size(), i);
+                cursor.rewind();
+            }
+        }
+    }
+
+    public void testTileCursorFilter() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        int expected = new VectorTileDecoder().decode(data, "road").asList().size();
+        VectorTileBuffer.TileCursor cursor = new VectorTileBuffer(ByteBuffer.wrap(data))
+                .cursor(new Filter.Single("road"));
+        int count = 0;
+        while (cursor.next()) {
+            assertEquals("road", cursor.layerName());
+            count++;
+        }
+        assertEquals(expected, count);
+        try {
+            cursor.id();
+            fail("not positioned on a feature");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testTileCursorDoesNotAllocate() throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        VectorTileBuffer.TileCursor cursor = new VectorTileBuffer(ByteBuffer.wrap(data), new StringPool(1024))
+                .cursor();
+        GeometryBuffer geometry = new GeometryBuffer();
+
+        long least = Long.MAX_VALUE;
+        long sum = 0;
+        for (int pass = 0; pass < 20; pass++) {
+            long before = allocations.getThreadAllocatedBytes(thread);
+            cursor.rewind();
+            while (cursor.next()) {
+                sum += cursor.id() + cursor.tagCount() + cursor.layerName().length();
+                sum += cursor.geometry(geometry).getVertexCount();
+            }
+            least = Math.min(least, allocations.getThreadAllocatedBytes(thread) - before);
+        }
+        assertTrue(sum > 0);
+        assertEquals(0, least);
+    }
+
+    private static final class CountingVisitor implements GeometryVisitor {
+
+        int moveTo;
+        int lineTo;
+        int closePath;
+        int exterior;
+        double sum;
+
+        @Override
+        public void ring(boolean exteriorRing) {
+            if (exteriorRing) {
+                exterior++;
+            }
+        }
+
+        @Override
+        public void moveTo(double x, double y) {
+            moveTo++;
+            sum += x + y;
+        }
+
+        @Override
+        public void lineTo(double x, double y) {
+            lineTo++;
+            sum += x + y;
+        }
+
+        @Override
+        public void closePath() {
+            closePath++;
+        }
+
+    }
+
+    public void testTileCursorVisitor() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        VectorTileBuffer.TileCursor cursor = new VectorTileBuffer(ByteBuffer.wrap(data)).cursor();
+        GeometryBuffer geometry = new GeometryBuffer();
+        while (cursor.next()) {
+            CountingVisitor visitor = new CountingVisitor();
+            cursor.geometry(visitor, false);
+            cursor.geometry(geometry);
+
+            int vertices = 0;
+            int exterior = 0;
+            int closed = 0;
+            for (int part = 0; part < geometry.getPartCount(); part++) {
+                long area2 = geometry.getTwiceSignedArea(part);
+                if (geometry.getType() == GeomType.POLYGON && area2 == 0) {
+                    continue;
+                }
+                vertices += geometry.getPartEnd(part) - geometry.getPartStart(part);
+                exterior += area2 > 0 ? 1 : 0;
+                closed += geometry.isClosed(part) ? 1 : 0;
+            }
+            assertEquals(vertices, visitor.moveTo + visitor.lineTo);
+            assertEquals(exterior, visitor.exterior);
+            assertEquals(closed, visitor.closePath);
+        }
+    }
+
+    public void testTileCursorVisitorDoesNotAllocate() throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        VectorTileBuffer.TileCursor cursor = new VectorTileBuffer(ByteBuffer.wrap(data)).cursor();
+        CountingVisitor visitor = new CountingVisitor();
+
+        long least = Long.MAX_VALUE;
+        for (int pass = 0; pass < 20; pass++) {
+            long before = allocations.getThreadAllocatedBytes(thread);
+            cursor.rewind();
+            while (cursor.next()) {
+                cursor.geometry(visitor, true);
+            }
+            least = Math.min(least, allocations.getThreadAllocatedBytes(thread) - before);
+        }
+        assertTrue(visitor.moveTo > 0);
+        assertTrue(visitor.sum > 0);
+        assertEquals(0, least);
+    }
+
+    private static byte[] toBytes(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int bytesRead = 0;
+        while ((bytesRead = in.read(buf)) != -1) {
+            baos.write(buf, 0, bytesRead);
+        }
+        return baos.toByteArray();
+    }
+
+}
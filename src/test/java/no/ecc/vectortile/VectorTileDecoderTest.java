@@ -18,26 +18,48 @@
  ****************************************************************/
 package no.ecc.vectortile;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import junit.framework.TestCase;
 import no.ecc.vectortile.VectorTileDecoder.Feature;
+import no.ecc.vectortile.VectorTileDecoder.FeatureIterable;
 
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.impl.CoordinateArraySequenceFactory;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+import vector_tile.VectorTile;
 
 public class VectorTileDecoderTest extends TestCase {
 
@@ -287,6 +309,737 @@ public class VectorTileDecoderTest extends TestCase {
         }
     }
 
+    public void testBigTileLayerFilter() throws IOException {
+        InputStream is = getClass().getResourceAsStream("/bigtile.vector.pbf");
+        assertNotNull(is);
+        byte[] bigtile = toBytes(is);
+
+        // a layer with a valid name, but a feature that can not be parsed
+        byte[] broken = new byte[] { 0x1a, 0x0b, 0x0a, 0x06, 'b', 'r', 'o', 'k', 'e', 'n', 0x12, 0x01, 0x0f };
+        byte[] data = Arrays.copyOf(bigtile, bigtile.length + broken.length);
+        System.arraycopy(broken, 0, data, bigtile.length, broken.length);
+
+        final List<String> asked = new ArrayList<String>();
+        Filter filter = new Filter() {
+            @Override
+            public boolean include(String layerName) {
+                asked.add(layerName);
+                return layerName.equals("layer-100");
+            }
+        };
+        VectorTileDecoder d = new VectorTileDecoder();
+        FeatureIterable filtered = d.decode(data, filter);
+        List<Feature> features = filtered.asList();
+
+        // the excluded layers are only asked for by name, and never parsed
+        assertEquals(1001, asked.size());
+        assertEquals(new HashSet<String>(filtered.getLayerNames()), new HashSet<String>(asked));
+        assertEquals("broken", asked.get(1000));
+        assertEquals(100, features.size());
+        for (Feature feature : features) {
+            assertEquals("layer-100", feature.getLayerName());
+        }
+
+        try {
+            d.decode(data).asList();
+            fail("the broken layer is parsed without a filter");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testMappedFile() throws IOException {
+        byte[] first = toBytes(getClass().getResourceAsStream("/cells-11-1065-567.mvt"));
+        byte[] second = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        VectorTileDecoder d = new VectorTileDecoder();
+
+        Path path = Files.createTempFile("tiles", ".bin");
+        try {
+            Files.write(path, first);
+            assertEquals(306, d.decode(path).asList().size());
+
+            // tiles stored back to back, as in an archive
+            byte[] archive = new byte[7 + first.length + second.length];
+            System.arraycopy(first, 0, archive, 7, first.length);
+            System.arraycopy(second, 0, archive, 7 + first.length, second.length);
+            Files.write(path, archive);
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                assertEquals(306, d.decode(channel, 7, first.length).asList().size());
+                List<Feature> pois = d.decode(channel, 7 + first.length, second.length, new Filter.Single("poi_label"))
+                        .asList();
+                assertEquals(558, pois.size());
+                assertEquals("Mauerpark", pois.get(11).getAttributes().get("name"));
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    public void testDecodeStream() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        VectorTileDecoder d = new VectorTileDecoder();
+
+        List<Feature> expected = d.decode(data).asList();
+        Iterator<Feature> it = d.decodeStream(new ByteArrayInputStream(data));
+        for (Feature e : expected) {
+            assertTrue(it.hasNext());
+            Feature f = it.next();
+            assertEquals(e.getLayerName(), f.getLayerName());
+            assertEquals(e.getAttributes(), f.getAttributes());
+            assertEquals(e.getGeometry(), f.getGeometry());
+        }
+        assertFalse(it.hasNext());
+
+        int pois = 0;
+        for (it = d.decodeStream(new ByteArrayInputStream(data), new Filter.Single("poi_label")); it.hasNext();) {
+            assertEquals("poi_label", it.next().getLayerName());
+            pois++;
+        }
+        assertEquals(558, pois);
+
+        it = d.decodeStream(new ByteArrayInputStream(Arrays.copyOf(data, data.length - 10)));
+        try {
+            while (it.hasNext()) {
+                it.next();
+            }
+            fail("expected UncheckedIOException");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+    }
+
+    public void testDecodeStreamReleasesLayers() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        final List<byte[]> layerBytes = new ArrayList<byte[]>();
+        for (VectorTile.Tile.Layer layer : VectorTile.Tile.parseFrom(data).getLayersList()) {
+            layerBytes.add(layer.toByteArray());
+        }
+        final List<Boolean> released = new ArrayList<Boolean>();
+
+        // parses each layer when it is asked for, and checks that the
+        // previous layer can be collected before the next one is read
+        Iterator<VectorTile.Tile.Layer> layers = new Iterator<VectorTile.Tile.Layer>() {
+
+            private int parsed;
+
+            // the features of the previous layer, which are most of its memory
+            private WeakReference<List<VectorTile.Tile.Feature>> previous;
+
+            public boolean hasNext() {
+                if (previous != null) {
+                    for (int i = 0; i < 10 && previous.get() != null; i++) {
+                        System.gc();
+                    }
+                    released.add(previous.get() == null);
+                    previous = null;
+                }
+                return parsed < layerBytes.size();
+            }
+
+            public VectorTile.Tile.Layer next() {
+                try {
+                    VectorTile.Tile.Layer layer = VectorTile.Tile.Layer.parseFrom(layerBytes.get(parsed++));
+                    // an empty layer shares an empty list with all others
+                    if (layer.getFeaturesCount() > 0) {
+                        previous = new WeakReference<List<VectorTile.Tile.Feature>>(layer.getFeaturesList());
+                    }
+                    return layer;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+        };
+
+        int count = 0;
+        for (Iterator<Feature> it = new VectorTileDecoder().decode(layers); it.hasNext();) {
+            it.next();
+            count++;
+        }
+        assertEquals(new VectorTileDecoder().decode(data).asList().size(), count);
+        assertEquals(14, released.size());
+        assertFalse(released.contains(Boolean.FALSE));
+    }
+
+    public void testLazyGeometry() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        VectorTileDecoder d = new VectorTileDecoder();
+
+        List<Feature> features = d.decode(data).asList();
+        for (Feature f : features) {
+            assertFalse(f.isGeometryDecoded());
+            assertNotNull(f.getAttributes());
+        }
+        Feature building = d.decode(data, "building").asList().get(0);
+        Geometry geometry = building.getGeometry();
+        assertTrue(building.isGeometryDecoded());
+        assertSame(geometry, building.getGeometry());
+        assertEquals(5, geometry.getCoordinates().length);
+
+        d.setCacheGeometry(false);
+        building = d.decode(data, "building").asList().get(0);
+        geometry = building.getGeometry();
+        assertFalse(building.isGeometryDecoded());
+        assertNotSame(geometry, building.getGeometry());
+        assertEquals(geometry, building.getGeometry());
+    }
+
+    public void testAttributeView() throws IOException {
+        VectorTileEncoder e = new VectorTileEncoder(256);
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("name", "a");
+        attributes.put("count", 12);
+        attributes.put("big", Long.MAX_VALUE);
+        attributes.put("ratio", 0.25);
+        attributes.put("flag", Boolean.TRUE);
+        e.addFeature("layer", attributes, gf.createPoint(new Coordinate(3, 6)));
+
+        Feature feature = new VectorTileDecoder().decode(e.encode()).asList().get(0);
+        Map<String, Object> view = feature.getAttributes();
+        assertEquals(5, view.size());
+        assertEquals(new HashMap<String, Object>(view), view);
+        assertEquals(view, new HashMap<String, Object>(view));
+        assertEquals("a", view.get("name"));
+        assertTrue(view.containsKey("flag"));
+        assertFalse(view.containsKey("missing"));
+        assertNull(view.get("missing"));
+
+        assertEquals(12L, feature.getLong("count", -1));
+        assertEquals(Long.MAX_VALUE, feature.getLong("big", -1));
+        assertEquals(0, feature.getLong("ratio", -1));
+        assertEquals(0.25, feature.getDouble("ratio", -1), 0.0);
+        assertEquals(12.0, feature.getDouble("count", -1), 0.0);
+        assertEquals(-1L, feature.getLong("name", -1));
+        assertEquals(-1L, feature.getLong("flag", -1));
+        assertEquals(-1.0, feature.getDouble("missing", -1), 0.0);
+        assertEquals("a", feature.getString("name"));
+        assertNull(feature.getString("count"));
+
+        try {
+            view.put("name", "b");
+            fail("attributes should be read-only");
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+    public void testAttributeViewDuplicateKey() throws IOException {
+        VectorTile.Tile.Layer.Builder layer = VectorTile.Tile.Layer.newBuilder().setVersion(2).setName("layer")
+                .setExtent(256).addKeys("name").addKeys("kind").addKeys("name");
+        layer.addValues(VectorTile.Tile.Value.newBuilder().setStringValue("first"));
+        layer.addValues(VectorTile.Tile.Value.newBuilder().setStringValue("shop"));
+        layer.addValues(VectorTile.Tile.Value.newBuilder().setStringValue("last"));
+        layer.addFeatures(VectorTile.Tile.Feature.newBuilder().setType(VectorTile.Tile.GeomType.POINT)
+                .addAllGeometry(Arrays.asList(9, 6, 12)).addAllTags(Arrays.asList(0, 0, 1, 1, 0, 2)));
+        // the same key through another index of the key table
+        layer.addFeatures(VectorTile.Tile.Feature.newBuilder().setType(VectorTile.Tile.GeomType.POINT)
+                .addAllGeometry(Arrays.asList(9, 6, 12)).addAllTags(Arrays.asList(0, 0, 1, 1, 2, 2)));
+        byte[] data = VectorTile.Tile.newBuilder().addLayers(layer).build().toByteArray();
+
+        List<Feature> features = new VectorTileDecoder().decode(data).asList();
+        assertEquals(features.get(0).getAttributes(), features.get(1).getAttributes());
+        assertEquals(2, features.get(1).getAttributes().size());
+        Map<String, Object> view = features.get(0).getAttributes();
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("name", "last");
+        expected.put("kind", "shop");
+        assertEquals(2, view.size());
+        assertEquals(2, view.entrySet().size());
+        assertEquals("last", view.get("name"));
+        assertEquals(expected, view);
+        assertEquals(expected, new HashMap<String, Object>(view));
+        List<String> keys = new ArrayList<String>();
+        for (Map.Entry<String, Object> entry : view.entrySet()) {
+            keys.add(entry.getKey());
+            assertEquals(view.get(entry.getKey()), entry.getValue());
+        }
+        assertEquals(Arrays.asList("kind", "name"), keys);
+
+        // a tag outside the tables fails when the feature is decoded
+        layer.addFeatures(VectorTile.Tile.Feature.newBuilder().setType(VectorTile.Tile.GeomType.POINT)
+                .addAllGeometry(Arrays.asList(9, 6, 12)).addAllTags(Arrays.asList(0, 3)));
+        data = VectorTile.Tile.newBuilder().addLayers(layer).build().toByteArray();
+        try {
+            new VectorTileDecoder().decode(data).asList();
+            fail("value index outside the table");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testGeometryBuffer() throws IOException {
+        VectorTileEncoder e = new VectorTileEncoder(4096, 0, false);
+        Map<String, Object> attributes = Collections.emptyMap();
+        Polygon polygon = gf.createPolygon(
+                gf.createLinearRing(new Coordinate[] { new Coordinate(10, 10), new Coordinate(100, 10),
+                        new Coordinate(100, 100), new Coordinate(10, 100), new Coordinate(10, 10) }),
+                new LinearRing[] { gf.createLinearRing(new Coordinate[] { new Coordinate(20, 20),
+                        new Coordinate(20, 30), new Coordinate(30, 30), new Coordinate(20, 20) }) });
+        e.addFeature("polygon", attributes, polygon);
+        e.addFeature("line", attributes, gf.createMultiLineString(new LineString[] {
+                gf.createLineString(new Coordinate[] { new Coordinate(1, 2), new Coordinate(3, 4) }),
+                gf.createLineString(new Coordinate[] { new Coordinate(5, 6), new Coordinate(7, 8),
+                        new Coordinate(9, 10) }) }));
+        e.addFeature("point", attributes, gf.createPoint(new Coordinate(40, 50)));
+
+        VectorTileDecoder d = new VectorTileDecoder();
+        d.setAutoScale(false);
+        List<Feature> features = d.decode(e.encode()).asList();
+        GeometryBuffer buffer = new GeometryBuffer();
+
+        Feature feature = features.get(0);
+        assertSame(buffer, feature.getGeometry(buffer));
+        assertFalse(feature.isGeometryDecoded());
+        assertEquals(VectorTile.Tile.GeomType.POLYGON, buffer.getType());
+        assertEquals(2, buffer.getPartCount());
+        assertEquals(7, buffer.getVertexCount());
+        assertEquals(0, buffer.getPartStart(0));
+        assertEquals(4, buffer.getPartEnd(0));
+        assertEquals(4, buffer.getPartStart(1));
+        assertEquals(7, buffer.getPartEnd(1));
+        // exterior rings are positive and holes negative, as in the specification
+        assertEquals(2 * 90 * 90, buffer.getTwiceSignedArea(0));
+        assertEquals(-2 * 50, buffer.getTwiceSignedArea(1));
+        Coordinate[] expected = feature.getGeometry().getCoordinates();
+        assertEquals(expected[0].x, buffer.getX(0), 0.0);
+        assertEquals(expected[0].y, buffer.getY(0), 0.0);
+        assertEquals(expected[5].x, buffer.getX(4), 0.0);
+        assertEquals(expected[5].y, buffer.getY(4), 0.0);
+
+        feature = features.get(1);
+        assertSame(buffer, feature.getGeometry(buffer));
+        assertEquals(VectorTile.Tile.GeomType.LINESTRING, buffer.getType());
+        assertEquals(2, buffer.getPartCount());
+        assertEquals(5, buffer.getVertexCount());
+        assertEquals(2, buffer.getPartStart(1));
+        assertEquals(9, buffer.getX(4));
+        assertEquals(10, buffer.getY(4));
+        assertEquals(9, buffer.getCoordinates()[8]);
+        assertEquals(0, buffer.getTwiceSignedArea(0));
+
+        feature = features.get(2);
+        buffer = feature.getGeometry((GeometryBuffer) null);
+        assertEquals(VectorTile.Tile.GeomType.POINT, feature.getGeometryType());
+        assertEquals(1, buffer.getPartCount());
+        assertEquals(1, buffer.getVertexCount());
+        assertEquals(40, buffer.getX(0));
+        assertEquals(50, buffer.getY(0));
+        assertTrue(Arrays.equals(new int[] { 9, 80, 100 }, feature.getGeometryCommands()));
+
+        Feature constructed = new Feature("layer", 4096, polygon, attributes, 0);
+        assertEquals(VectorTile.Tile.GeomType.UNKNOWN, constructed.getGeometryType());
+        try {
+            constructed.getGeometry(buffer);
+            fail("feature was not decoded");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    public void testConstructedFeatureWithoutGeometry() {
+        Map<String, Object> attributes = Collections.<String, Object> singletonMap("key", "value");
+        Feature feature = new Feature("layer", 4096, null, attributes, 7);
+        assertNull(feature.getGeometry());
+        assertEquals("layer", feature.getLayerName());
+        assertEquals(7, feature.getId());
+        assertEquals(attributes, feature.getAttributes());
+    }
+
+    public void testBounds() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        VectorTileDecoder d = new VectorTileDecoder();
+        List<Feature> all = d.decode(data).asList();
+
+        Envelope bounds = new Envelope(100, 140, 60, 90);
+        d.setBounds(bounds);
+        assertEquals(bounds, d.getBounds());
+        List<Feature> filtered = d.decode(data).asList();
+        assertFalse(filtered.isEmpty());
+        assertTrue(filtered.size() < all.size() / 2);
+
+        int expected = 0;
+        for (Feature feature : all) {
+            if (feature.getGeometry().getEnvelopeInternal().intersects(bounds)) {
+                expected++;
+            }
+        }
+        assertTrue(filtered.size() >= expected);
+        for (Feature feature : filtered) {
+            assertFalse(feature.isGeometryDecoded());
+            Envelope envelope = feature.getGeometry().getEnvelopeInternal();
+            envelope.expandBy(1);
+            assertTrue(envelope.intersects(bounds));
+        }
+
+        // same region, without scaling
+        d.setAutoScale(false);
+        d.setBounds(new Envelope(100 * 16, 140 * 16, 60 * 16, 90 * 16));
+        assertEquals(filtered.size(), d.decode(data).asList().size());
+
+        // together with a layer filter
+        d.setAutoScale(true);
+        d.setBounds(bounds);
+        int roads = 0;
+        for (Feature feature : filtered) {
+            if (feature.getLayerName().equals("road")) {
+                roads++;
+            }
+        }
+        assertEquals(roads, d.decode(data, "road").asList().size());
+
+        d.setBounds(null);
+        assertNull(d.getBounds());
+        assertEquals(all.size(), d.decode(data).asList().size());
+    }
+
+    public void testTagFilter() throws IOException {
+        VectorTileEncoder e = new VectorTileEncoder(256);
+        String[] classes = { "motorway", "primary", "path" };
+        for (int i = 0; i < 30; i++) {
+            Map<String, Object> attributes = new HashMap<String, Object>();
+            attributes.put("class", classes[i % 3]);
+            attributes.put("population", i * 1000);
+            if (i % 2 == 0) {
+                attributes.put("even", Boolean.TRUE);
+            }
+            e.addFeature("roads", attributes, gf.createPoint(new Coordinate(i, i)));
+        }
+        e.addFeature("other", Collections.<String, Object> singletonMap("name", "x"),
+                gf.createPoint(new Coordinate(1, 1)));
+        byte[] data = e.encode();
+
+        VectorTileDecoder d = new VectorTileDecoder();
+        assertNull(d.getTagFilter());
+
+        d.setTagFilter(new TagFilter.Equals("class", "motorway"));
+        List<Feature> features = d.decode(data).asList();
+        assertEquals(10, features.size());
+        for (Feature feature : features) {
+            assertEquals("motorway", feature.getAttributes().get("class"));
+            assertFalse(feature.isGeometryDecoded());
+        }
+
+        d.setTagFilter(new TagFilter.GreaterThan("population", 20000));
+        assertEquals(9, d.decode(data).asList().size());
+        d.setTagFilter(new TagFilter.LessThan("population", 2000));
+        assertEquals(2, d.decode(data).asList().size());
+        d.setTagFilter(new TagFilter.Equals("population", 3000.0));
+        assertEquals(3000L, d.decode(data).asList().get(0).getLong("population", -1));
+        d.setTagFilter(new TagFilter.Has("even"));
+        assertEquals(15, d.decode(data).asList().size());
+        d.setTagFilter(new TagFilter.Has("name"));
+        assertEquals("other", d.decode(data).asList().get(0).getLayerName());
+
+        d.setTagFilter(new TagFilter.And(new TagFilter.Equals("class", "path"), new TagFilter.Has("even")));
+        assertEquals(5, d.decode(data).asList().size());
+        d.setTagFilter(new TagFilter.Or(new TagFilter.Equals("class", "path"), new TagFilter.Has("name")));
+        assertEquals(11, d.decode(data).asList().size());
+        d.setTagFilter(new TagFilter.Not(new TagFilter.Has("even")));
+        assertEquals(16, d.decode(data).asList().size());
+        d.setTagFilter(new TagFilter.Equals("class", "missing"));
+        assertTrue(d.decode(data).asList().isEmpty());
+
+        // together with a layer filter
+        d.setTagFilter(new TagFilter.Not(new TagFilter.Has("even")));
+        assertEquals(1, d.decode(data, "other").asList().size());
+
+        d.setTagFilter(null);
+        assertEquals(31, d.decode(data).asList().size());
+    }
+
+    public void testTagFilterLargeNumbers() throws IOException {
+        VectorTileEncoder e = new VectorTileEncoder(256);
+        for (long id : new long[] { Long.MAX_VALUE - 2, Long.MAX_VALUE - 1, Long.MAX_VALUE }) {
+            e.addFeature("ids", Collections.<String, Object> singletonMap("id", id),
+                    gf.createPoint(new Coordinate(1, 1)));
+        }
+        byte[] data = e.encode();
+
+        VectorTileDecoder d = new VectorTileDecoder();
+        d.setTagFilter(new TagFilter.Equals("id", Long.MAX_VALUE - 1));
+        List<Feature> features = d.decode(data).asList();
+        assertEquals(1, features.size());
+        assertEquals(Long.MAX_VALUE - 1, features.get(0).getLong("id", -1));
+
+        d.setTagFilter(new TagFilter.Equals("id", 3));
+        assertTrue(d.decode(data).asList().isEmpty());
+    }
+
+    public void testTagFilterDuplicateKey() throws IOException {
+        // the key is twice in the key table, and features use either index
+        VectorTile.Tile.Layer.Builder layer = VectorTile.Tile.Layer.newBuilder().setVersion(2).setName("layer")
+                .setExtent(256).addKeys("kind").addKeys("kind");
+        layer.addValues(VectorTile.Tile.Value.newBuilder().setStringValue("shop"));
+        layer.addValues(VectorTile.Tile.Value.newBuilder().setStringValue("cafe"));
+        for (List<Integer> tags : Arrays.asList(Arrays.asList(0, 0), Arrays.asList(1, 0), Arrays.asList(1, 1),
+                Arrays.asList(0, 0, 1, 1))) {
+            layer.addFeatures(VectorTile.Tile.Feature.newBuilder().setType(VectorTile.Tile.GeomType.POINT)
+                    .addAllGeometry(Arrays.asList(9, 6, 12)).addAllTags(tags));
+        }
+        byte[] data = VectorTile.Tile.newBuilder().addLayers(layer).build().toByteArray();
+
+        VectorTileDecoder d = new VectorTileDecoder();
+        d.setTagFilter(new TagFilter.Equals("kind", "shop"));
+        assertEquals(2, d.decode(data).asList().size());
+        d.setTagFilter(new TagFilter.Equals("kind", "cafe"));
+        List<Feature> features = d.decode(data).asList();
+        assertEquals(2, features.size());
+        for (Feature feature : features) {
+            assertEquals("cafe", feature.getAttributes().get("kind"));
+        }
+        d.setTagFilter(new TagFilter.Has("kind"));
+        assertEquals(4, d.decode(data).asList().size());
+    }
+
+    public void testGeometryTypesAndIds() throws IOException {
+        VectorTileEncoder e = new VectorTileEncoder(256);
+        Map<String, Object> attributes = Collections.emptyMap();
+        e.addFeature("layer", attributes, gf.createPoint(new Coordinate(1, 2)), 0);
+        e.addFeature("layer", attributes, gf.createPoint(new Coordinate(3, 4)), 7);
+        e.addFeature("layer", attributes, gf.createLineString(new Coordinate[] { new Coordinate(1, 2),
+                new Coordinate(30, 40) }), 8);
+        e.addFeature("layer", attributes, gf.createPolygon(new Coordinate[] { new Coordinate(0, 0),
+                new Coordinate(50, 0), new Coordinate(50, 50), new Coordinate(0, 50), new Coordinate(0, 0) }),
+                -5);
+        byte[] data = e.encode();
+
+        VectorTileDecoder d = new VectorTileDecoder();
+        assertNull(d.getGeometryTypes());
+        assertNull(d.getIds());
+
+        d.setGeometryTypes(EnumSet.of(VectorTile.Tile.GeomType.POLYGON));
+        List<Feature> features = d.decode(data).asList();
+        assertEquals(1, features.size());
+        assertTrue(features.get(0).getGeometry() instanceof Polygon);
+        assertEquals(EnumSet.of(VectorTile.Tile.GeomType.POLYGON), d.getGeometryTypes());
+
+        d.setGeometryTypes(EnumSet.of(VectorTile.Tile.GeomType.POINT, VectorTile.Tile.GeomType.LINESTRING));
+        assertEquals(3, d.decode(data).asList().size());
+
+        d.setGeometryTypes(null);
+        d.setIds(8, 7, 1000);
+        assertTrue(Arrays.equals(new long[] { 7, 8, 1000 }, d.getIds()));
+        features = d.decode(data).asList();
+        assertEquals(2, features.size());
+        assertEquals(7, features.get(0).getId());
+        assertEquals(8, features.get(1).getId());
+
+        // the polygon is written without an id, as it is negative
+        d.setIds(0, -5);
+        features = d.decode(data).asList();
+        assertEquals(1, features.size());
+        assertEquals(0, features.get(0).getId());
+        assertTrue(features.get(0).getGeometry() instanceof Point);
+
+        d.setGeometryTypes(EnumSet.of(VectorTile.Tile.GeomType.POINT));
+        assertEquals(1, d.decode(data).asList().size());
+
+        d.setGeometryTypes(null);
+        d.setIds((long[]) null);
+        assertEquals(4, d.decode(data).asList().size());
+    }
+
+    public void testParallelStream() throws IOException {
+        for (String tile : new String[] { "/14-8801-5371.vector.pbf", "/bigtile.vector.pbf",
+                "/cells-11-1058-568.mvt" }) {
+            byte[] data = toBytes(getClass().getResourceAsStream(tile));
+            VectorTileDecoder d = new VectorTileDecoder();
+            FeatureIterable iterable = d.decode(data);
+            List<Feature> expected = iterable.asList();
+
+            assertEquals(expected.size(), iterable.spliterator().getExactSizeIfKnown());
+            assertFeaturesEqual(expected, iterable.stream().collect(Collectors.<Feature> toList()));
+            assertFeaturesEqual(expected, iterable.parallelStream().collect(Collectors.<Feature> toList()));
+
+            d.setGeometryTypes(EnumSet.of(VectorTile.Tile.GeomType.POLYGON));
+            iterable = d.decode(data);
+            assertEquals(-1, iterable.spliterator().getExactSizeIfKnown());
+            assertFeaturesEqual(iterable.asList(), iterable.parallelStream().collect(Collectors.<Feature> toList()));
+        }
+    }
+
+    public void testSpliteratorSplitsSingleLayer() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        FeatureIterable iterable = new VectorTileDecoder().decode(data, "building");
+        int size = iterable.asList().size();
+        assertTrue(size > 256);
+
+        Spliterator<Feature> suffix = iterable.spliterator();
+        Spliterator<Feature> prefix = suffix.trySplit();
+        assertNotNull(prefix);
+        assertEquals(size, prefix.estimateSize() + suffix.estimateSize());
+        assertEquals(size / 2, prefix.estimateSize());
+
+        final int[] count = new int[1];
+        Consumer<Feature> counter = new Consumer<Feature>() {
+
+            @Override
+            public void accept(Feature feature) {
+                assertEquals("building", feature.getLayerName());
+                count[0]++;
+            }
+
+        };
+        prefix.forEachRemaining(counter);
+        suffix.forEachRemaining(counter);
+        assertEquals(size, count[0]);
+    }
+
+    private void assertFeaturesEqual(List<Feature> expected, List<Feature> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Feature e = expected.get(i);
+            Feature a = actual.get(i);
+            assertEquals(e.getLayerName(), a.getLayerName());
+            assertEquals(e.getId(), a.getId());
+            assertEquals(e.getAttributes(), a.getAttributes());
+            assertEquals(e.getGeometry(), a.getGeometry());
+        }
+    }
+
+    public void testStringPool() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        List<Feature> expected = new VectorTileDecoder().decode(data).asList();
+
+        StringPool pool = new StringPool(1000);
+        assertEquals(1024, pool.getCapacity());
+        VectorTileDecoder first = new VectorTileDecoder();
+        first.setStringPool(pool);
+        assertSame(pool, first.getStringPool());
+        VectorTileDecoder second = new VectorTileDecoder();
+        second.setStringPool(pool);
+
+        VectorTileEncoder e = new VectorTileEncoder(256);
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put("class", "residential");
+        attributes.put("name", "a name that is longer than sixty four bytes, so it is not put in the pool");
+        e.addFeature("layer", attributes, gf.createPoint(new Coordinate(1, 2)));
+        byte[] small = e.encode();
+
+        Feature a = first.decode(small).asList().get(0);
+        Feature b = second.decode(small).asList().get(0);
+        assertEquals(a.getAttributes(), b.getAttributes());
+        assertSame(a.getAttributes().get("class"), b.getAttributes().get("class"));
+        assertNotSame(a.getAttributes().get("name"), b.getAttributes().get("name"));
+        for (String key : a.getAttributes().keySet()) {
+            for (String other : b.getAttributes().keySet()) {
+                if (key.equals(other)) {
+                    assertSame(key, other);
+                }
+            }
+        }
+
+        VectorTileBuffer.LayerCursor layer = new VectorTileBuffer(ByteBuffer.wrap(small), pool).layers();
+        assertTrue(layer.next());
+        for (int i = 0; i < layer.valueCount(); i++) {
+            if ("residential".equals(layer.value(i))) {
+                assertSame(a.getAttributes().get("class"), layer.value(i));
+            }
+        }
+
+        assertFeaturesEqual(expected, first.decode(data).asList());
+
+        // a tiny pool still decodes correctly, it just evicts more
+        VectorTileDecoder tiny = new VectorTileDecoder();
+        tiny.setStringPool(new StringPool(1, 4));
+        assertFeaturesEqual(expected, tiny.decode(data).asList());
+    }
+
+    public void testCoordinateSequenceFactory() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        VectorTileDecoder d = new VectorTileDecoder();
+        assertSame(PackedCoordinateSequenceFactory.DOUBLE_FACTORY, d.getCoordinateSequenceFactory());
+        List<Feature> packed = d.decode(data).asList();
+        for (Feature feature : packed) {
+            Geometry geometry = feature.getGeometry();
+            assertSame(PackedCoordinateSequenceFactory.DOUBLE_FACTORY, geometry.getFactory()
+                    .getCoordinateSequenceFactory());
+            if (geometry instanceof LineString) {
+                assertTrue(((LineString) geometry).getCoordinateSequence() instanceof PackedCoordinateSequence.Double);
+            }
+        }
+
+        d.setCoordinateSequenceFactory(CoordinateArraySequenceFactory.instance());
+        List<Feature> objects = d.decode(data).asList();
+        assertFeaturesEqual(objects, packed);
+        assertTrue(objects.get(0).getGeometry().getFactory()
+                .getCoordinateSequenceFactory() instanceof CoordinateArraySequenceFactory);
+    }
+
+    public void testGeometryVisitor() throws IOException {
+        byte[] data = toBytes(getClass().getResourceAsStream("/14-8801-5371.vector.pbf"));
+        for (boolean autoScale : new boolean[] { true, false }) {
+            VectorTileDecoder d = new VectorTileDecoder();
+            d.setAutoScale(autoScale);
+            int polygons = 0;
+            for (Feature feature : d.decode(data)) {
+                final List<String> events = new ArrayList<String>();
+                feature.visitGeometry(new GeometryVisitor() {
+
+                    @Override
+                    public void ring(boolean exterior) {
+                        events.add(exterior ? "exterior" : "interior");
+                    }
+
+                    @Override
+                    public void moveTo(double x, double y) {
+                        events.add("M " + x + " " + y);
+                    }
+
+                    @Override
+                    public void lineTo(double x, double y) {
+                        events.add("L " + x + " " + y);
+                    }
+
+                    @Override
+                    public void closePath() {
+                        events.add("Z");
+                    }
+
+                });
+
+                Geometry geometry = feature.getGeometry();
+                if (geometry instanceof Polygon || geometry instanceof MultiPolygon) {
+                    polygons++;
+                }
+                assertEquals(events(geometry), events);
+            }
+            assertTrue(polygons > 0);
+        }
+    }
+
+    private static List<String> events(Geometry geometry) {
+        List<String> events = new ArrayList<String>();
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            Geometry part = geometry.getGeometryN(i);
+            if (part instanceof Point) {
+                events.add("M " + part.getCoordinate().x + " " + part.getCoordinate().y);
+            } else if (part instanceof LineString) {
+                addEvents(events, part.getCoordinates(), false);
+            } else if (part instanceof Polygon) {
+                Polygon polygon = (Polygon) part;
+                events.add("exterior");
+                addEvents(events, polygon.getExteriorRing().getCoordinates(), true);
+                for (int j = 0; j < polygon.getNumInteriorRing(); j++) {
+                    events.add("interior");
+                    addEvents(events, polygon.getInteriorRingN(j).getCoordinates(), true);
+                }
+            }
+        }
+        return events;
+    }
+
+    private static void addEvents(List<String> events, Coordinate[] coordinates, boolean ring) {
+        int n = ring ? coordinates.length - 1 : coordinates.length;
+        for (int i = 0; i < n; i++) {
+            events.add((i == 0 ? "M " : "L ") + coordinates[i].x + " " + coordinates[i].y);
+        }
+        if (ring) {
+            events.add("Z");
+        }
+    }
+
     public void testLineWithOnePoint() throws IOException {
         InputStream is = getClass().getResourceAsStream("/cells-11-1065-567.mvt");
         assertNotNull(is);
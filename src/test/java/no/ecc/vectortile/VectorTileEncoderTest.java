@@ -665,6 +665,133 @@ public class VectorTileEncoderTest extends TestCase {
         }
     }
 
+    public void testHilbertIndex() {
+        // the order 1 curve visits (0,0), (0,1), (1,1), (1,0)
+        assertEquals(0, VectorTileEncoder.hilbertIndex(1, 0, 0));
+        assertEquals(1, VectorTileEncoder.hilbertIndex(1, 0, 1));
+        assertEquals(2, VectorTileEncoder.hilbertIndex(1, 1, 1));
+        assertEquals(3, VectorTileEncoder.hilbertIndex(1, 1, 0));
+        assertEquals(15, VectorTileEncoder.hilbertIndex(2, 3, 0));
+    }
+
+    public void testSpatialOrdering() throws IOException {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        VectorTileEncoder vtm = new VectorTileEncoder(256);
+        vtm.setSpatialOrdering(true);
+        vtm.addFeature("DEPCNT", attributes, gf.createPoint(new Coordinate(200, 10)), 1);
+        vtm.addFeature("DEPCNT", attributes, gf.createPoint(new Coordinate(200, 200)), 2);
+        vtm.addFeature("DEPCNT", attributes, gf.createPoint(new Coordinate(10, 200)), 3);
+        vtm.addFeature("DEPCNT", attributes, gf.createPoint(new Coordinate(10, 10)), 4);
+
+        List<Feature> features = encodeDecodeFeatures(vtm);
+        assertEquals(4, features.size());
+        assertEquals(4, features.get(0).getId());
+        assertEquals(3, features.get(1).getId());
+        assertEquals(2, features.get(2).getId());
+        assertEquals(1, features.get(3).getId());
+    }
+
+    public void testSpatialOrderingRotatesRings() throws IOException {
+        Coordinate[] cs = new Coordinate[] { new Coordinate(100, 100), new Coordinate(100, 10),
+                new Coordinate(10, 10), new Coordinate(10, 100), new Coordinate(100, 100) };
+        Polygon polygon = gf.createPolygon(cs);
+
+        VectorTileEncoder vtm = new VectorTileEncoder(256);
+        vtm.setSpatialOrdering(true);
+        List<Integer> commands = vtm.commands(polygon);
+        // MoveTo(10, 10) as that is the vertex nearest the cursor at (0, 0)
+        assertCommand(9, commands, 0);
+        assertCommand(20, commands, 1);
+        assertCommand(20, commands, 2);
+
+        vtm.addFeature("DEPCNT", Collections.<String, Object> emptyMap(), polygon);
+        List<Feature> features = encodeDecodeFeatures(vtm);
+        assertEquals(1, features.size());
+        assertEquals(polygon.getArea(), features.get(0).getGeometry().getArea(), 0.001);
+        assertTrue(Orientation.isCCW(((Polygon) features.get(0).getGeometry()).getExteriorRing().getCoordinates()));
+    }
+
+    public void testStats() throws IOException {
+        Map<String, Object> attributes = Collections.<String, Object> singletonMap("key1", "value1");
+        EncoderStats stats = new EncoderStats();
+
+        VectorTileEncoder vtm = new VectorTileEncoder(256);
+        vtm.setStats(stats);
+        vtm.addFeature("DEPCNT", attributes, gf.createPoint(new Coordinate(10, 10)));
+        vtm.addFeature("DEPCNT", attributes, gf.createPoint(new Coordinate(1000, 10)));
+        vtm.addFeature("DEPCNT", attributes,
+                gf.createLineString(new Coordinate[] { new Coordinate(10, 10), new Coordinate(10.1, 10) }));
+        vtm.addFeature("DEPCNT", attributes,
+                gf.createLineString(new Coordinate[] { new Coordinate(-20, 10), new Coordinate(20, 10) }));
+        vtm.addFeature("small", attributes, gf.createPoint(new Coordinate(10, 10)).buffer(0.1));
+
+        byte[] encoded = vtm.encode();
+        assertEquals(2, new VectorTileDecoder().decode(encoded).asList().size());
+
+        assertEquals(2, stats.getAccepted());
+        assertEquals(3, stats.getDropped());
+        assertEquals(1, stats.getDropped(EncoderStats.DropReason.EMPTY_CLIP));
+        assertEquals(1, stats.getDropped(EncoderStats.DropReason.SHORT_LENGTH));
+        assertEquals(1, stats.getDropped(EncoderStats.DropReason.SMALL_AREA));
+        assertEquals(0, stats.getDropped(EncoderStats.DropReason.EMPTY_COMMANDS));
+
+        assertEquals(4, stats.getVerticesBeforeSimplify());
+        assertEquals(4, stats.getVerticesAfterSimplify());
+        assertEquals(3, stats.getVerticesAfterClip());
+        assertEquals(3, stats.getVerticesAfterRounding());
+
+        assertEquals(1, stats.getLayerBytes().size());
+        long layerBytes = stats.getLayerBytes().get("DEPCNT").longValue();
+        assertTrue(layerBytes < encoded.length);
+        assertEquals(0, stats.getWktFallbacks());
+
+        // encoding the same features again does not count them again
+        assertTrue(Arrays.equals(encoded, vtm.encode()));
+        assertEquals(2, stats.getAccepted());
+        assertEquals(3, stats.getDropped());
+        assertEquals(3, stats.getVerticesAfterRounding());
+        assertEquals(layerBytes, stats.getLayerBytes().get("DEPCNT").longValue());
+
+        // only what is added after the first encode() is counted
+        vtm.addFeature("DEPCNT", attributes, gf.createPoint(new Coordinate(20, 20)));
+        vtm.encode();
+        assertEquals(3, stats.getAccepted());
+        assertEquals(5, stats.getVerticesBeforeSimplify());
+        assertEquals(4, stats.getVerticesAfterRounding());
+        assertTrue(stats.getLayerBytes().get("DEPCNT").longValue() > layerBytes);
+        assertTrue(stats.getLayerBytes().get("DEPCNT").longValue() < 2 * layerBytes);
+
+        stats.reset();
+        assertEquals(0, stats.getAccepted());
+        assertTrue(stats.getLayerBytes().isEmpty());
+    }
+
+    public void testStatsClippedToCollection() throws IOException {
+        EncoderStats stats = new EncoderStats();
+        VectorTileEncoder vtm = new VectorTileEncoder(256) {
+
+            @Override
+            protected Geometry clipGeometry(Geometry geometry) {
+                // a clip that splits the line into a collection of a line and a point
+                Coordinate[] cs = geometry.getCoordinates();
+                return gf.createGeometryCollection(new Geometry[] {
+                        gf.createLineString(new Coordinate[] { cs[0], cs[1] }), gf.createPoint(cs[2]) });
+            }
+
+        };
+        vtm.setStats(stats);
+        vtm.addFeature("DEPCNT", Collections.<String, Object> emptyMap(), gf.createLineString(new Coordinate[] {
+                new Coordinate(10, 10), new Coordinate(20, 10), new Coordinate(30, 20) }));
+        assertEquals(2, encodeDecodeFeatures(vtm).size());
+
+        assertEquals(2, stats.getAccepted());
+        assertEquals(0, stats.getDropped());
+        assertEquals(3, stats.getVerticesBeforeSimplify());
+        assertEquals(3, stats.getVerticesAfterSimplify());
+        assertEquals(3, stats.getVerticesAfterClip());
+        assertEquals(3, stats.getVerticesAfterRounding());
+    }
+
     private List<Feature> encodeDecodeFeatures(VectorTileEncoder vtm) throws IOException {
         byte[] encoded = vtm.encode();
         assertNotSame(0, encoded.length);